@@ -4,7 +4,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.oanda.v20.Context;
-import com.oanda.v20.ContextBuilder;
+import com.oanda.v20.ExecuteException;
+import com.oanda.v20.RequestException;
 import com.oanda.v20.account.Account;
 import com.oanda.v20.account.AccountChanges;
 import com.oanda.v20.account.AccountChangesRequest;
@@ -26,33 +27,66 @@ import com.oanda.v20.transaction.TransactionID;
 
 public class AccountUpdateLoop {
 
+    private final Context ctx;
+    private final StalenessMonitor monitor;
+    private final AccountID accountId;
+    private Account account;
+    private TransactionID lastTransactionId;
+
+    public AccountUpdateLoop(Context ctx, StalenessMonitor monitor, AccountID accountId) {
+        this.ctx = ctx;
+        this.monitor = monitor;
+        this.accountId = accountId;
+    }
+
+    /**
+     * Get the initial account state.
+     */
+    public void initialize() throws RequestException, ExecuteException {
+        AccountGetResponse accountStateResponse = ctx.account.get(accountId);
+        account = accountStateResponse.getAccount();
+        lastTransactionId = accountStateResponse.getLastTransactionID();
+    }
+
+    /**
+     * Poll once for changes since the last seen transaction and apply them.
+     */
+    public void poll() throws RequestException, ExecuteException {
+        System.out.println("Polling from "+lastTransactionId);
+        AccountChangesRequest request = new AccountChangesRequest(accountId)
+                .setSinceTransactionID(lastTransactionId);
+        AccountChangesResponse resp = ctx.account.changes(request);
+        AccountChanges changes = resp.getChanges();
+        monitor.onAccountChanges(lastTransactionId, resp.getLastTransactionID(),
+                changes.getTransactions());
+        lastTransactionId = resp.getLastTransactionID();
+
+        applyAccountChanges(account, changes);
+
+        AccountChangesState updatedstate = resp.getState();
+        applyAccountChangesState(account, updatedstate);
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
     public static void main(String[] args) {
-        Context ctx = new ContextBuilder(Config.URL)
-        		.setToken(Config.TOKEN)
-        		.setApplication("AccountUpdateLoop")
-        		.build();
-        
+        Context ctx = new ScheduledContext(Config.URL, Config.TOKEN, "AccountUpdateLoop");
+
         AccountID accountId = Config.ACCOUNTID;
 
         // Get initial account state
         try {
-            AccountGetResponse accountStateResponse = ctx.account.get(accountId);
-            Account account = accountStateResponse.getAccount();
-            TransactionID lastTransactionId = accountStateResponse.getLastTransactionID();
+            StalenessMonitor monitor = new StalenessMonitor();
+            monitor.start(1000);
+
+            AccountUpdateLoop loop = new AccountUpdateLoop(ctx, monitor, accountId);
+            loop.initialize();
 
             while (true) {
-                System.out.println("Polling from "+lastTransactionId);
-                AccountChangesResponse resp = ctx.account.changes(
-                        new AccountChangesRequest(accountId)
-                            .setSinceTransactionID(lastTransactionId)
-                        );
-                lastTransactionId = resp.getLastTransactionID();
-
-                AccountChanges changes = resp.getChanges();
-                applyAccountChanges(account, changes);
-
-                AccountChangesState updatedstate = resp.getState();
-                applyAccountChangesState(account, updatedstate);
+                loop.poll();
+                System.out.println(monitor);
                 Thread.sleep(1000);
             }
         } catch (Exception e) {
@@ -0,0 +1,65 @@
+package com.oanda.v20.v20sample;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.oanda.v20.Context;
+import com.oanda.v20.ExecuteException;
+import com.oanda.v20.RequestException;
+import com.oanda.v20.account.AccountID;
+import com.oanda.v20.order.OrderCreateRequest;
+import com.oanda.v20.position.Position;
+import com.oanda.v20.transaction.OrderFillTransaction;
+
+/**
+ * A {@link TradingAccount} backed by a real v20 account.  Open positions are
+ * loaded once on construction and then kept up to date from the fills of the
+ * orders placed through this object, so positions changed by anything else are
+ * not seen until {@link #refresh()} is called.
+ */
+public class LiveAccount implements TradingAccount {
+
+    private final Context ctx;
+    private final AccountID accountId;
+    private final Map<String, Double> units = new HashMap<>();
+
+    public LiveAccount(Context ctx, AccountID accountId) throws RequestException, ExecuteException {
+        this.ctx = ctx;
+        this.accountId = accountId;
+        refresh();
+    }
+
+    /**
+     * Reload the open positions from the server.
+     */
+    public synchronized void refresh() throws RequestException, ExecuteException {
+        units.clear();
+        for (Position position : ctx.position.listOpen(accountId).getPositions()) {
+            units.put(position.getInstrument().toString(),
+                    position.getLong().getUnits().doubleValue() + position.getShort().getUnits().doubleValue());
+        }
+    }
+
+    @Override
+    public AccountID getAccountId() {
+        return accountId;
+    }
+
+    @Override
+    public Fill create(OrderCreateRequest request) throws RequestException, ExecuteException {
+        OrderFillTransaction fill = ctx.order.create(request).getOrderFillTransaction();
+        if (fill == null)
+            return null;
+        String instrument = fill.getInstrument().toString();
+        double filled = fill.getUnits().doubleValue();
+        synchronized (this) {
+            units.merge(instrument, filled, Double::sum);
+        }
+        return new Fill(instrument, filled, fill.getPrice().doubleValue(), fill.getPl().doubleValue());
+    }
+
+    @Override
+    public synchronized double getUnits(String instrument) {
+        return units.getOrDefault(instrument, 0.0);
+    }
+}
@@ -1,46 +1,101 @@
 package com.oanda.v20.v20sample;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import com.oanda.v20.Context;
-import com.oanda.v20.ContextBuilder;
+import com.oanda.v20.ExecuteException;
+import com.oanda.v20.RequestException;
 import com.oanda.v20.account.AccountID;
 import com.oanda.v20.pricing.ClientPrice;
 import com.oanda.v20.pricing.PricingGetRequest;
 import com.oanda.v20.pricing.PricingGetResponse;
 import com.oanda.v20.primitives.DateTime;
 
+/**
+ * Polls prices for a few instruments once a second.  If a file name is given
+ * on the command line every received price is also archived to it with a
+ * {@link TickCaptureWriter}.  How stale the prices are is tracked with a
+ * {@link StalenessMonitor}.
+ */
 public class PricePolling {
 
+    private final Context ctx;
+    private final StalenessMonitor monitor;
+    private final PricingGetRequest request;
+    private TickCaptureWriter capture;
+    private DateTime since;
+
+    public PricePolling(Context ctx, StalenessMonitor monitor, AccountID accountId, List<String> instruments) {
+        this.ctx = ctx;
+        this.monitor = monitor;
+        this.request = new PricingGetRequest(accountId, instruments);
+    }
+
+    public PricePolling setCapture(TickCaptureWriter capture) {
+        this.capture = capture;
+        return this;
+    }
+
+    /**
+     * Poll once for prices that have changed since the previous poll.
+     */
+    public void poll() throws RequestException, ExecuteException, IOException {
+        if (since != null)
+        {
+            System.out.println("Polling since " + since);
+            request.setSince(since);
+        }
+        ScheduledContext.Timed<PricingGetResponse> timed = ScheduledContext.timed(ctx, () -> ctx.pricing.get(request));
+        PricingGetResponse resp = timed.getResponse();
+        monitor.onServerTime(timed.getSentMicros(), timed.getReceivedMicros(), resp.getTime());
+
+        for (ClientPrice price : resp.getPrices())
+            monitor.onPriceReceived(price.getInstrument().toString(), price.getTime());
+        for (ClientPrice price : resp.getPrices()) {
+            System.out.println(price);
+            if (capture != null)
+                capture.write(price);
+            monitor.onPriceConsumed(price.getInstrument().toString(), price.getTime());
+        }
+        since = resp.getTime();
+    }
+
     public static void main(String[] args) {
-        Context ctx = new ContextBuilder(Config.URL)
-        		.setToken(Config.TOKEN)
-        		.setApplication("PricePolling")
-        		.build();
-        
+        Context ctx = new ScheduledContext(Config.URL, Config.TOKEN, "PricePolling");
+
         AccountID accountId = Config.ACCOUNTID;
         List<String> instruments = new ArrayList<>(
                 Arrays.asList("EUR_USD", "USD_JPY", "GBP_USD", "USD_CHF"));
 
         // Poll for prices
         try {
-            PricingGetRequest request = new PricingGetRequest(accountId, instruments);
+            StalenessMonitor monitor = new StalenessMonitor();
+            monitor.start(1000);
 
-            DateTime since = null;
+            PricePolling polling = new PricePolling(ctx, monitor, accountId, instruments);
 
+            if (args.length > 0) {
+                TickCaptureWriter writer = TickCaptureWriter.openRolling(Paths.get(args[0]));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        writer.close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }));
+                polling.setCapture(writer);
+            }
+
+            int polls = 0;
             while (true) {
-                if (since != null)
-                {
-                    System.out.println("Polling since " + since);
-                    request.setSince(since);
-                }
-                PricingGetResponse resp = ctx.pricing.get(request);
-
-                for (ClientPrice price : resp.getPrices())
-                    System.out.println(price);
-                since = resp.getTime();
+                polling.poll();
+
+                if (++polls % 10 == 0)
+                    System.out.println(monitor);
 
                 Thread.sleep(1000);
             }
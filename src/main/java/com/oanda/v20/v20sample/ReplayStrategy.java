@@ -0,0 +1,26 @@
+package com.oanda.v20.v20sample;
+
+import com.oanda.v20.ExecuteException;
+import com.oanda.v20.RequestException;
+
+/**
+ * Trading logic driven by {@link TickReplay}.  A new instance is created for
+ * every run, so implementations may keep mutable state without synchronization.
+ * <p>
+ * Strategies only see prices and a {@link TradingAccount}, so the same
+ * implementation can be fed live prices and trade a {@link LiveAccount}.
+ */
+public interface ReplayStrategy {
+
+    /**
+     * Called for every price, after {@code account} has been updated with it.
+     *
+     * @param instrument the instrument priced
+     * @param timeMicros the price time, in microseconds since the epoch
+     * @param bid        the best bid
+     * @param ask        the best ask
+     * @param account    the account to place orders against
+     */
+    void onTick(String instrument, long timeMicros, double bid, double ask, TradingAccount account)
+            throws RequestException, ExecuteException;
+}
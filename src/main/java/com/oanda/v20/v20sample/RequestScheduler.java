@@ -0,0 +1,390 @@
+package com.oanda.v20.v20sample;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.oanda.v20.ExecuteException;
+import com.oanda.v20.RequestException;
+
+/**
+ * Paces every request made with a given API token so that several workloads
+ * sharing the token in one process do not trip the server's rate limit.
+ * <p>
+ * Each request draws one token from a bucket shared by the whole API token,
+ * and one from the bucket of its endpoint class if that class has a limit.
+ * By default the token is limited to 100 requests per second with a burst of
+ * 20, pricing to 50/s with a burst of 10, and the account, order and trade
+ * classes to 25/s with a burst of 5 each, so no single class can use up the
+ * whole budget.  Waiting requests are served strictly by {@link Lane} and then
+ * in arrival order, except that a request held up only by its own endpoint
+ * class limit lets the requests behind it go first.  The last few tokens of
+ * the shared bucket are held back
+ * for the {@link Lane#ORDER} lane, so order submission does not queue behind
+ * polling.  A 429 response pauses every lane with exponential back-off and the
+ * request is retried.
+ * <p>
+ * Requests are normally routed through a scheduler by making them on a
+ * {@link ScheduledContext}, which picks the lane and endpoint class of each
+ * request itself:
+ * <pre>
+ *   Context ctx = new ScheduledContext(Config.URL, Config.TOKEN, "PricePolling");
+ *   PricingGetResponse resp = ctx.pricing.get(request);
+ * </pre>
+ * Other code can go through {@link #call(Lane, String, Call)} directly.
+ */
+public class RequestScheduler {
+
+    /**
+     * Priority lanes, highest priority first.
+     */
+    public enum Lane { ORDER, ACCOUNT, POLLING }
+
+    public static final String PRICING = "pricing";
+    public static final String ACCOUNT = "account";
+    public static final String ORDER = "order";
+    public static final String TRADE = "trade";
+
+    /**
+     * A v20 request to run once tokens are available.
+     */
+    public interface Call<T> {
+        T call() throws RequestException, ExecuteException;
+    }
+
+    /**
+     * Queueing statistics for one lane.
+     */
+    public static class Stats {
+        private long requests;
+        private long throttled;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        Stats() {}
+
+        Stats(Stats other) {
+            requests = other.requests;
+            throttled = other.throttled;
+            totalWaitNanos = other.totalWaitNanos;
+            maxWaitNanos = other.maxWaitNanos;
+        }
+
+        public long getRequests() { return requests; }
+        public long getThrottled() { return throttled; }
+        public double getAverageWaitMillis() { return requests == 0 ? 0 : totalWaitNanos / 1e6 / requests; }
+        public double getMaxWaitMillis() { return maxWaitNanos / 1e6; }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d throttled, wait avg %.2f ms max %.2f ms",
+                    requests, throttled, getAverageWaitMillis(), getMaxWaitMillis());
+        }
+    }
+
+    private static class TokenBucket {
+        private final double ratePerNano;
+        private final double burst;
+        private double tokens;
+        private long last;
+
+        TokenBucket(double perSecond, double burst) {
+            this.ratePerNano = perSecond / 1e9;
+            this.burst = burst;
+            this.tokens = burst;
+            this.last = System.nanoTime();
+        }
+
+        void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - last) * ratePerNano);
+            last = now;
+        }
+
+        long nanosUntil(double needed) {
+            return tokens >= needed ? 0 : (long) Math.ceil((needed - tokens) / ratePerNano);
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        final Lane lane;
+        final String endpoint;
+        final long sequence;
+
+        Waiter(Lane lane, String endpoint, long sequence) {
+            this.lane = lane;
+            this.endpoint = endpoint;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            int c = lane.compareTo(o.lane);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private static final Map<String, RequestScheduler> schedulers = new HashMap<>();
+
+    /**
+     * The scheduler shared by everything in this process using {@code token}.
+     */
+    public static synchronized RequestScheduler forToken(String token) {
+        RequestScheduler scheduler = schedulers.get(token);
+        if (scheduler == null) {
+            scheduler = new RequestScheduler();
+            schedulers.put(token, scheduler);
+        }
+        return scheduler;
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final TreeSet<Waiter> waiting = new TreeSet<>();
+    private final Map<String, TokenBucket> endpoints = new HashMap<>();
+    private final Stats[] stats = new Stats[Lane.values().length];
+    private TokenBucket global = new TokenBucket(100, 20);
+    private double orderReserve = 5;
+    private int maxRetries = 5;
+    private long baseBackoffNanos = TimeUnit.MILLISECONDS.toNanos(250);
+    private long maxBackoffNanos = TimeUnit.SECONDS.toNanos(10);
+    private long pausedUntil;
+    private int consecutiveThrottles;
+    private long sequence;
+
+    public RequestScheduler() {
+        for (int i = 0; i < stats.length; i++)
+            stats[i] = new Stats();
+        pausedUntil = System.nanoTime();
+        endpoints.put(PRICING, new TokenBucket(50, 10));
+        endpoints.put(ACCOUNT, new TokenBucket(25, 5));
+        endpoints.put(ORDER, new TokenBucket(25, 5));
+        endpoints.put(TRADE, new TokenBucket(25, 5));
+    }
+
+    /**
+     * Limit the total request rate for the API token.
+     *
+     * @throws IllegalArgumentException if {@code burst} does not leave at least
+     *         one token above the order reserve, since no other lane could
+     *         ever run
+     */
+    public RequestScheduler setGlobalLimit(double perSecond, double burst) {
+        lock.lock();
+        try {
+            return setGlobalLimit(perSecond, burst, orderReserve);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Limit the total request rate for the API token and set the order reserve
+     * in one step, so a smaller burst and a smaller reserve can be set together.
+     *
+     * @see #setOrderReserve(double)
+     */
+    public RequestScheduler setGlobalLimit(double perSecond, double burst, double orderReserve) {
+        lock.lock();
+        try {
+            checkLimit(perSecond, burst);
+            checkReserve(orderReserve, burst);
+            global = new TokenBucket(perSecond, burst);
+            this.orderReserve = orderReserve;
+            return this;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Limit the request rate for one endpoint class, replacing its default.
+     * Endpoint classes without a limit are only bound by the global limit.
+     */
+    public RequestScheduler setEndpointLimit(String endpoint, double perSecond, double burst) {
+        lock.lock();
+        try {
+            checkLimit(perSecond, burst);
+            endpoints.put(endpoint, new TokenBucket(perSecond, burst));
+            return this;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param tokens how many global tokens only the {@link Lane#ORDER} lane may use
+     * @throws IllegalArgumentException if that would leave no token of the
+     *         global burst for the other lanes
+     */
+    public RequestScheduler setOrderReserve(double tokens) {
+        lock.lock();
+        try {
+            checkReserve(tokens, global.burst);
+            orderReserve = tokens;
+            return this;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param retries how many times a request answered with 429 is retried
+     * @param base    the first back-off pause
+     * @param max     the longest back-off pause
+     */
+    public RequestScheduler setBackoff(int retries, long base, long max, TimeUnit unit) {
+        lock.lock();
+        try {
+            maxRetries = retries;
+            baseBackoffNanos = unit.toNanos(base);
+            maxBackoffNanos = unit.toNanos(max);
+            return this;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void checkLimit(double perSecond, double burst) {
+        if (perSecond <= 0 || burst < 1)
+            throw new IllegalArgumentException("Invalid limit of "+perSecond+"/s with burst "+burst);
+    }
+
+    private static void checkReserve(double tokens, double burst) {
+        if (tokens < 0 || tokens + 1 > burst)
+            throw new IllegalArgumentException("Order reserve "+tokens+" must be between 0 and "
+                    +(burst - 1)+" for a burst of "+burst);
+    }
+
+    public Stats getStats(Lane lane) {
+        lock.lock();
+        try {
+            return new Stats(stats[lane.ordinal()]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run {@code call} once the rate limits allow it, retrying with back-off if
+     * the server answers 429.
+     */
+    public <T> T call(Lane lane, String endpoint, Call<T> call)
+            throws RequestException, ExecuteException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            acquire(lane, endpoint);
+            try {
+                T result = call.call();
+                succeeded();
+                return result;
+            } catch (RequestException e) {
+                if (e.getStatus() != 429 || attempt >= maxRetries)
+                    throw e;
+                throttled(lane);
+            }
+        }
+    }
+
+    private void acquire(Lane lane, String endpoint) throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            Waiter waiter = new Waiter(lane, endpoint, sequence++);
+            waiting.add(waiter);
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    if (hasPrecedence(waiter, now)) {
+                        changed.await();
+                        continue;
+                    }
+                    long wait = pausedUntil - now;
+                    if (wait <= 0) {
+                        TokenBucket bucket = endpoints.get(endpoint);
+                        double needed = 1 + (lane == Lane.ORDER ? 0 : orderReserve);
+                        global.refill(now);
+                        if (bucket != null)
+                            bucket.refill(now);
+                        wait = Math.max(global.nanosUntil(needed), bucket == null ? 0 : bucket.nanosUntil(1));
+                        if (wait == 0) {
+                            global.tokens -= 1;
+                            if (bucket != null)
+                                bucket.tokens -= 1;
+                            break;
+                        }
+                    }
+                    changed.awaitNanos(wait);
+                }
+            } finally {
+                waiting.remove(waiter);
+                changed.signalAll();
+            }
+
+            Stats s = stats[lane.ordinal()];
+            long waited = System.nanoTime() - start;
+            s.requests++;
+            s.totalWaitNanos += waited;
+            s.maxWaitNanos = Math.max(s.maxWaitNanos, waited);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a request queued ahead of {@code waiter} should go first.  One
+     * that is only waiting for its own endpoint class bucket to refill does not
+     * hold up the requests behind it.
+     */
+    private boolean hasPrecedence(Waiter waiter, long now) {
+        for (Waiter ahead : waiting.headSet(waiter)) {
+            TokenBucket bucket = endpoints.get(ahead.endpoint);
+            if (bucket == null)
+                return true;
+            bucket.refill(now);
+            if (bucket.nanosUntil(1) == 0)
+                return true;
+        }
+        return false;
+    }
+
+    private void succeeded() {
+        lock.lock();
+        try {
+            consecutiveThrottles = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void throttled(Lane lane) {
+        lock.lock();
+        try {
+            stats[lane.ordinal()].throttled++;
+            long backoff = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(consecutiveThrottles, 20));
+            backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            consecutiveThrottles++;
+            long now = System.nanoTime();
+            if (pausedUntil - now < backoff)
+                pausedUntil = now + backoff;
+            global.refill(now);
+            global.tokens = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane lane : Lane.values()) {
+            if (sb.length() > 0)
+                sb.append('\n');
+            sb.append(lane).append(": ").append(getStats(lane));
+        }
+        return sb.toString();
+    }
+}
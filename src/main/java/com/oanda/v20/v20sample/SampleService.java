@@ -0,0 +1,228 @@
+package com.oanda.v20.v20sample;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import com.oanda.v20.account.AccountID;
+import com.oanda.v20.primitives.InstrumentName;
+
+/**
+ * Hosts the sample workloads in a single long-running process.
+ * <p>
+ * All workloads share one {@link ScheduledContext}, and with it one HTTP
+ * client, one {@link RequestScheduler} and one {@link StalenessMonitor}.  The
+ * HTTP client pools a connection per workload, so workloads do not queue for
+ * the two connections per host a default client allows.  Each workload
+ * runs on its own thread with its own start/stop lifecycle and health state.
+ * The service is configured from a properties file (see {@link ServiceConfig})
+ * rather than the constants in {@link Config}.
+ * <p>
+ * Startup is timed from JVM launch to the point where every workload has
+ * completed its first successful run.
+ * <p>
+ * Usage: {@code SampleService <config.properties>}
+ */
+public class SampleService {
+
+    private final ServiceConfig config;
+    private final List<Workload> workloads = new ArrayList<>();
+    private final StalenessMonitor monitor = new StalenessMonitor();
+    private CloseableHttpClient client;
+    private ScheduledContext ctx;
+
+    public SampleService(ServiceConfig config) {
+        this.config = config;
+    }
+
+    private Workload create(String name) {
+        AccountID accountId = config.getAccountId();
+        InstrumentName instrument = config.getInstrument();
+
+        switch (name) {
+        case "pricePolling":
+            return new Workload(name, config.getLong("pricePolling.intervalMillis", 1000)) {
+                private PricePolling polling;
+                private TickCaptureWriter capture;
+
+                @Override
+                protected void setUp() throws Exception {
+                    polling = new PricePolling(ctx, monitor, accountId,
+                            config.getList("pricePolling.instruments", "EUR_USD", "USD_JPY", "GBP_USD", "USD_CHF"));
+                    String file = config.getString("pricePolling.capture", null);
+                    if (file != null) {
+                        capture = TickCaptureWriter.openRolling(Paths.get(file));
+                        polling.setCapture(capture);
+                    }
+                }
+
+                @Override
+                protected void runOnce() throws Exception {
+                    polling.poll();
+                }
+
+                @Override
+                protected void tearDown() throws Exception {
+                    if (capture != null)
+                        capture.close();
+                }
+            };
+        case "accountUpdateLoop":
+            return new Workload(name, config.getLong("accountUpdateLoop.intervalMillis", 1000)) {
+                private AccountUpdateLoop loop;
+
+                @Override
+                protected void setUp() throws Exception {
+                    loop = new AccountUpdateLoop(ctx, monitor, accountId);
+                    loop.initialize();
+                }
+
+                @Override
+                protected void runOnce() throws Exception {
+                    loop.poll();
+                }
+            };
+        case "stepByStepOrder":
+            return new Workload(name, 0) {
+                @Override
+                protected void runOnce() {
+                    StepByStepOrder.run(ctx, accountId, instrument);
+                }
+            };
+        case "testTradesAndOrders":
+            return new Workload(name, 0) {
+                @Override
+                protected void runOnce() throws Exception {
+                    new TestTradesAndOrders(ctx, accountId, instrument).runTest();
+                }
+            };
+        default:
+            throw new IllegalArgumentException("Unknown workload "+name);
+        }
+    }
+
+    public void start() {
+        for (String name : config.getList("workloads", "accountUpdateLoop", "pricePolling"))
+            workloads.add(create(name));
+
+        long start = System.nanoTime();
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(Math.max(2, workloads.size()));
+        connections.setDefaultMaxPerRoute(Math.max(2, workloads.size()));
+        client = HttpClients.custom().setConnectionManager(connections).build();
+        ctx = new ScheduledContext(config.getUrl(), config.getToken(), config.getApplication(),
+                client, configure(RequestScheduler.forToken(config.getToken())));
+        long built = System.nanoTime();
+
+        monitor.start(1000);
+        for (Workload workload : workloads)
+            workload.start();
+
+        System.out.println(String.format("Context built in %.1f ms, %d workloads started in %.1f ms",
+                (built - start) / 1e6, workloads.size(), (System.nanoTime() - built) / 1e6));
+    }
+
+    private RequestScheduler configure(RequestScheduler scheduler) {
+        double[] global = config.getLimit("scheduler.global");
+        double reserve = config.getDouble("scheduler.orderReserve", Double.NaN);
+        if (global != null && !Double.isNaN(reserve))
+            scheduler.setGlobalLimit(global[0], global[1], reserve);
+        else if (global != null)
+            scheduler.setGlobalLimit(global[0], global[1]);
+        else if (!Double.isNaN(reserve))
+            scheduler.setOrderReserve(reserve);
+
+        for (String endpoint : new String[] {
+                RequestScheduler.PRICING, RequestScheduler.ACCOUNT, RequestScheduler.ORDER, RequestScheduler.TRADE }) {
+            double[] limit = config.getLimit("scheduler.endpoint."+endpoint);
+            if (limit != null)
+                scheduler.setEndpointLimit(endpoint, limit[0], limit[1]);
+        }
+        return scheduler;
+    }
+
+    public void stop() {
+        for (int i = workloads.size() - 1; i >= 0; i--) {
+            try {
+                workloads.get(i).stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        monitor.stop();
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close the HTTP client: "+e);
+            }
+        }
+    }
+
+    public List<Workload> getWorkloads() {
+        return workloads;
+    }
+
+    /**
+     * @return true once every workload has had a successful run, or has
+     *         finished trying
+     */
+    public boolean isWarmedUp() {
+        for (Workload workload : workloads) {
+            if (workload.getWarmupMillis() < 0 && workload.getHealth() != Workload.Health.FAILED)
+                return false;
+        }
+        return true;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Workload workload : workloads)
+            sb.append(workload).append('\n');
+        sb.append(ctx.getScheduler()).append('\n');
+        sb.append(monitor);
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: SampleService <config.properties>");
+            System.exit(1);
+        }
+        try {
+            SampleService service = new SampleService(ServiceConfig.load(Paths.get(args[0])));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                service.stop();
+                System.out.println(service.report());
+            }));
+            service.start();
+
+            long healthInterval = service.config.getLong("healthIntervalMillis", 10000);
+            boolean warmedUp = false;
+            long nextReport = System.currentTimeMillis() + healthInterval;
+            while (true) {
+                if (!warmedUp && service.isWarmedUp()) {
+                    warmedUp = true;
+                    System.out.println(String.format("Warmed up %d ms after JVM start",
+                            ManagementFactory.getRuntimeMXBean().getUptime()));
+                    for (Workload workload : service.getWorkloads())
+                        System.out.println(workload);
+                }
+                if (System.currentTimeMillis() >= nextReport) {
+                    System.out.println(service.report());
+                    nextReport += healthInterval;
+                }
+                Thread.sleep(100);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
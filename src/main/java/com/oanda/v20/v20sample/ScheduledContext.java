@@ -0,0 +1,162 @@
+package com.oanda.v20.v20sample;
+
+import java.util.Map;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import com.oanda.v20.Context;
+import com.oanda.v20.ExecuteException;
+import com.oanda.v20.Request;
+import com.oanda.v20.RequestException;
+import com.oanda.v20.primitives.AcceptDatetimeFormat;
+import com.oanda.v20.v20sample.RequestScheduler.Call;
+import com.oanda.v20.v20sample.RequestScheduler.Lane;
+
+/**
+ * A {@link Context} that sends every request through a {@link RequestScheduler},
+ * so code written against a plain {@code Context} is paced without change.
+ * <p>
+ * The lane and endpoint class are chosen from the method and path template of
+ * each request:
+ * <ul>
+ * <li>Anything other than a GET on orders, trades or positions, such as
+ *     {@code POST /orders} or {@code PUT /trades/{tradeSpecifier}/close}, goes
+ *     in the {@link Lane#ORDER} lane.</li>
+ * <li>Pricing and account changes polls go in the {@link Lane#POLLING} lane.</li>
+ * <li>Everything else goes in the {@link Lane#ACCOUNT} lane.</li>
+ * </ul>
+ * The timing of the last HTTP exchange made on each thread is kept without the
+ * time spent queued in the scheduler, for round trip measurements such as
+ * {@link StalenessMonitor#onServerTime}; see {@link #timed(Context, Call)}.
+ */
+public class ScheduledContext extends Context {
+
+    /**
+     * A response with the local times its request was sent and answered.
+     */
+    public static class Timed<T> {
+        private final T response;
+        private final long sentMicros;
+        private final long elapsedNanos;
+
+        Timed(T response, long sentMicros, long elapsedNanos) {
+            this.response = response;
+            this.sentMicros = sentMicros;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public T getResponse() { return response; }
+        public long getSentMicros() { return sentMicros; }
+        public long getReceivedMicros() { return sentMicros + elapsedNanos / 1000; }
+        public long getElapsedNanos() { return elapsedNanos; }
+    }
+
+    private final RequestScheduler scheduler;
+    private final ThreadLocal<long[]> lastExchange = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * A context with its own default HTTP client, paced by the scheduler shared
+     * by everything in this process using {@code token}.
+     */
+    public ScheduledContext(String uri, String token, String application) {
+        this(uri, token, application, HttpClients.createDefault(), RequestScheduler.forToken(token));
+    }
+
+    public ScheduledContext(String uri, String token, String application, HttpClient client,
+            RequestScheduler scheduler) {
+        super(uri, token, application, AcceptDatetimeFormat.RFC3339, client);
+        this.scheduler = scheduler;
+    }
+
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the local time, in microseconds since the epoch, at which the last
+     *         request made on this thread left the scheduler
+     */
+    public long getLastSentMicros() {
+        return lastExchange.get()[0];
+    }
+
+    /**
+     * @return how long the last request made on this thread took from leaving
+     *         the scheduler to its response being read
+     */
+    public long getLastElapsedNanos() {
+        return lastExchange.get()[1];
+    }
+
+    /**
+     * Make one request on {@code ctx} and time it.  On a {@code ScheduledContext}
+     * only the HTTP exchange is timed, not the wait for the rate limit; on any
+     * other context the whole call is.
+     */
+    public static <T> Timed<T> timed(Context ctx, Call<T> call) throws RequestException, ExecuteException {
+        long sent = StalenessMonitor.nowMicros();
+        long start = System.nanoTime();
+        T response = call.call();
+        long elapsed = System.nanoTime() - start;
+        if (ctx instanceof ScheduledContext) {
+            ScheduledContext scheduled = (ScheduledContext) ctx;
+            sent = scheduled.getLastSentMicros();
+            elapsed = scheduled.getLastElapsedNanos();
+        }
+        return new Timed<>(response, sent, elapsed);
+    }
+
+    @Override
+    public Object execute(String method, String path, Request request, Map<Integer, Class<?>> responses)
+            throws ExecuteException, RequestException {
+        try {
+            long[] exchange = lastExchange.get();
+            return scheduler.call(lane(method, path), endpoint(path), () -> {
+                exchange[0] = StalenessMonitor.nowMicros();
+                long start = System.nanoTime();
+                try {
+                    return super.execute(method, path, request, responses);
+                } finally {
+                    exchange[1] = System.nanoTime() - start;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecuteException("Interrupted waiting to send "+method+" "+path, e);
+        }
+    }
+
+    /**
+     * @return the endpoint class of a v20 path template
+     */
+    static String endpoint(String path) {
+        for (String segment : path.split("/")) {
+            switch (segment) {
+            case "pricing":
+            case "price":
+                return RequestScheduler.PRICING;
+            case "orders":
+            case "pendingOrders":
+                return RequestScheduler.ORDER;
+            case "trades":
+            case "openTrades":
+            case "positions":
+            case "openPositions":
+                return RequestScheduler.TRADE;
+            default:
+            }
+        }
+        return RequestScheduler.ACCOUNT;
+    }
+
+    static Lane lane(String method, String path) {
+        String endpoint = endpoint(path);
+        if (!method.equals("GET")
+                && (endpoint.equals(RequestScheduler.ORDER) || endpoint.equals(RequestScheduler.TRADE)))
+            return Lane.ORDER;
+        if (endpoint.equals(RequestScheduler.PRICING) || path.endsWith("/changes"))
+            return Lane.POLLING;
+        return Lane.ACCOUNT;
+    }
+}
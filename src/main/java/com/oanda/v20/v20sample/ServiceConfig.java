@@ -0,0 +1,137 @@
+package com.oanda.v20.v20sample;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import com.oanda.v20.account.AccountID;
+import com.oanda.v20.primitives.InstrumentName;
+
+/**
+ * Configuration for {@link SampleService}, read from a properties file.  Any
+ * connection setting missing from the file falls back to {@link Config}.
+ * <pre>
+ *   url=https://api-fxpractice.oanda.com
+ *   token=...
+ *   accountId=...
+ *   instrument=EUR_USD
+ *   application=SampleService
+ *
+ *   # Workloads to host, in start order.  The default is
+ *   # accountUpdateLoop,pricePolling; stepByStepOrder and testTradesAndOrders
+ *   # place real orders and only run when listed.
+ *   workloads=accountUpdateLoop,pricePolling
+ *
+ *   pricePolling.instruments=EUR_USD,USD_JPY,GBP_USD,USD_CHF
+ *   pricePolling.intervalMillis=1000
+ *   pricePolling.capture=prices.v20t
+ *   accountUpdateLoop.intervalMillis=1000
+ *
+ *   healthIntervalMillis=10000
+ *
+ *   # Request pacing for the token, as requests per second/burst.  Unset
+ *   # limits keep the RequestScheduler defaults.
+ *   scheduler.global=100/20
+ *   scheduler.orderReserve=5
+ *   scheduler.endpoint.pricing=50/10
+ *   scheduler.endpoint.account=25/5
+ *   scheduler.endpoint.order=25/5
+ *   scheduler.endpoint.trade=25/5
+ * </pre>
+ */
+public class ServiceConfig {
+
+    private final Properties properties;
+
+    public ServiceConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static ServiceConfig load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return new ServiceConfig(properties);
+    }
+
+    public String getUrl() { return getString("url", Config.URL); }
+    public String getToken() { return getString("token", Config.TOKEN); }
+    public String getApplication() { return getString("application", "SampleService"); }
+
+    public AccountID getAccountId() {
+        String id = getString("accountId", null);
+        return id == null ? Config.ACCOUNTID : new AccountID(id);
+    }
+
+    public InstrumentName getInstrument() {
+        String instrument = getString("instrument", null);
+        return instrument == null ? Config.INSTRUMENT : new InstrumentName(instrument);
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Property "+key+" is not a number: "+value, e);
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Property "+key+" is not a number: "+value, e);
+        }
+    }
+
+    /**
+     * @return the {@code perSecond/burst} rate limit in {@code key} as a
+     *         two element array, or null if it is not set
+     */
+    public double[] getLimit(String key) {
+        String value = getString(key, null);
+        if (value == null)
+            return null;
+        String[] parts = value.split("/");
+        try {
+            if (parts.length == 2)
+                return new double[] { Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()) };
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Property "+key+" is not a perSecond/burst limit: "+value);
+    }
+
+    /**
+     * @return the comma separated values of {@code key}, or {@code defaultValue}
+     */
+    public List<String> getList(String key, String... defaultValue) {
+        String value = getString(key, null);
+        if (value == null)
+            return Arrays.asList(defaultValue);
+        List<String> list = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty())
+                list.add(item.trim());
+        }
+        return list;
+    }
+}
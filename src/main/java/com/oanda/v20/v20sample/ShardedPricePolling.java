@@ -0,0 +1,461 @@
+package com.oanda.v20.v20sample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.oanda.v20.Context;
+import com.oanda.v20.account.AccountID;
+import com.oanda.v20.pricing.ClientPrice;
+import com.oanda.v20.pricing.PricingGetRequest;
+import com.oanda.v20.pricing.PricingGetResponse;
+import com.oanda.v20.primitives.DateTime;
+
+/**
+ * Polls prices for a large instrument universe by splitting it into shards
+ * that are polled concurrently, each with its own {@code since} cursor.
+ * <p>
+ * Prices from all shards are merged into a single stream ordered by price
+ * time.  A price is only released by {@link #take()} once every shard has
+ * polled past its timestamp, so a consumer never sees time go backwards.  The
+ * cost is that the merged stream runs as far behind as the slowest shard,
+ * which is why shards whose poll latency drifts well above the fastest shard
+ * have some of their instruments moved over to it.
+ * <p>
+ * A shard that has not polled successfully for {@code staleAfter} is left
+ * out of the watermark so one failing shard cannot hold back the rest.  When
+ * it recovers, any of its prices older than what has already been released are
+ * dropped rather than delivered out of order.  The merge queue is capped, and
+ * the oldest prices are dropped if the consumer falls that far behind.
+ * <p>
+ * Usage: {@code ShardedPricePolling [shardSize] [instrument...]}
+ */
+public class ShardedPricePolling {
+
+    /**
+     * A group of instruments polled together.
+     */
+    public static class Shard {
+        private final int id;
+        private List<String> instruments;
+        private DateTime since;
+        private long sinceMicros = Long.MIN_VALUE;
+        private long polls;
+        private long errors;
+        private double latencyNanos;
+        private long lastSuccessMillis;
+
+        Shard(int id, List<String> instruments) {
+            this.id = id;
+            this.instruments = instruments;
+        }
+
+        public int getId() { return id; }
+        public synchronized List<String> getInstruments() { return instruments; }
+        public synchronized long getPolls() { return polls; }
+        public synchronized long getErrors() { return errors; }
+
+        /**
+         * @return the local time of the last successful poll, or of
+         *         {@link ShardedPricePolling#start()} if there has been none
+         */
+        public synchronized long getLastSuccessMillis() { return lastSuccessMillis; }
+
+        /**
+         * @return the exponentially weighted average poll latency
+         */
+        public synchronized double getLatencyMillis() { return latencyNanos / 1e6; }
+
+        /**
+         * @return how far this shard's {@code since} cursor trails the local
+         *         clock, or -1 if it has not polled successfully yet
+         */
+        public synchronized double getLagMillis() {
+            if (sinceMicros == Long.MIN_VALUE)
+                return -1;
+            return (System.currentTimeMillis() * 1000 - sinceMicros) / 1000.0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("shard %d: %d instruments, %d polls, %d errors, latency %.1f ms, lag %.1f ms, last success %d ms ago",
+                    id, instruments.size(), polls, errors, getLatencyMillis(), getLagMillis(),
+                    System.currentTimeMillis() - lastSuccessMillis);
+        }
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final long time;
+        final long sequence;
+        final String instrument;
+        final ClientPrice price;
+
+        Entry(long time, long sequence, String instrument, ClientPrice price) {
+            this.time = time;
+            this.sequence = sequence;
+            this.instrument = instrument;
+            this.price = price;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int c = Long.compare(time, o.time);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final Context ctx;
+    private final AccountID accountId;
+    private final List<Shard> shards = new ArrayList<>();
+    private final PriorityQueue<Entry> merged = new PriorityQueue<>();
+    private final Map<String, Long> lastReleased = new HashMap<>();
+    private long releasedMicros = Long.MIN_VALUE;
+    private long dropped;
+    private long late;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition advanced = lock.newCondition();
+    private final ScheduledExecutorService executor;
+    private long sequence;
+    private long pollIntervalMillis = 1000;
+    private long rebalanceIntervalMillis = 30000;
+    private double rebalanceRatio = 2.0;
+    private long staleAfterMillis = 10000;
+    private int maxQueued = 100000;
+    private StalenessMonitor monitor;
+
+    /**
+     * @param ctx         the context to poll with
+     * @param accountId   the account to price against
+     * @param instruments the instrument universe
+     * @param shardSize   the initial number of instruments per shard
+     * @throws IllegalArgumentException if {@code shardSize} is not positive
+     */
+    public ShardedPricePolling(Context ctx, AccountID accountId, List<String> instruments, int shardSize) {
+        this.ctx = ctx;
+        this.accountId = accountId;
+        if (shardSize <= 0)
+            throw new IllegalArgumentException("Shard size must be positive: "+shardSize);
+        for (int i = 0; i < instruments.size(); i += shardSize) {
+            List<String> group = new ArrayList<>(
+                    instruments.subList(i, Math.min(i + shardSize, instruments.size())));
+            shards.add(new Shard(shards.size(), Collections.unmodifiableList(group)));
+        }
+        executor = Executors.newScheduledThreadPool(shards.size() + 1);
+    }
+
+    public ShardedPricePolling setPollInterval(long millis) {
+        this.pollIntervalMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param millis how often shard latencies are compared
+     * @param ratio  how many times slower than the fastest shard a shard must
+     *               be before instruments are moved off it
+     */
+    public ShardedPricePolling setRebalance(long millis, double ratio) {
+        this.rebalanceIntervalMillis = millis;
+        this.rebalanceRatio = ratio;
+        return this;
+    }
+
+    /**
+     * @param millis how long a shard may go without a successful poll before
+     *               the merged stream stops waiting for it
+     */
+    public ShardedPricePolling setStaleAfter(long millis) {
+        this.staleAfterMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param prices how many prices may wait in the merge queue before the
+     *               oldest are dropped
+     */
+    public ShardedPricePolling setMaxQueued(int prices) {
+        this.maxQueued = prices;
+        return this;
+    }
+
+    /**
+     * Report server times and price receipt to {@code monitor}.  Consumption
+     * is up to the caller of {@link #take()}.
+     */
+    public ShardedPricePolling setMonitor(StalenessMonitor monitor) {
+        this.monitor = monitor;
+        return this;
+    }
+
+    public List<Shard> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * @return how many prices were dropped because the merge queue was full
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many prices from a recovered stale shard were dropped because
+     *         newer prices had already been released
+     */
+    public long getLate() {
+        lock.lock();
+        try {
+            return late;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void start() {
+        long now = System.currentTimeMillis();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.lastSuccessMillis = now;
+            }
+        }
+        for (Shard shard : shards)
+            executor.scheduleWithFixedDelay(() -> poll(shard), 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::rebalance,
+                rebalanceIntervalMillis, rebalanceIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        lock.lock();
+        try {
+            advanced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the next price in time order across all shards.
+     *
+     * @return the next price, or null if the poller was stopped
+     */
+    public ClientPrice take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!executor.isShutdown()) {
+                Entry head = merged.peek();
+                if (head != null && head.time <= watermark()) {
+                    merged.poll();
+                    Long last = lastReleased.get(head.instrument);
+                    if (last != null && head.time <= last)
+                        continue;  // already seen via another shard after a rebalance
+                    if (head.time < releasedMicros) {
+                        late++;    // from a shard that was stale when newer prices were released
+                        continue;
+                    }
+                    lastReleased.put(head.instrument, head.time);
+                    releasedMicros = head.time;
+                    return head.price;
+                }
+                advanced.await(pollIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The time every live shard has polled up to; nothing newer can be
+     * released yet.  Shards that have gone stale are not waited for.
+     */
+    private long watermark() {
+        long now = System.currentTimeMillis();
+        long watermark = Long.MAX_VALUE;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (!shard.instruments.isEmpty() && now - shard.lastSuccessMillis <= staleAfterMillis)
+                    watermark = Math.min(watermark, shard.sinceMicros);
+            }
+        }
+        return watermark;
+    }
+
+    private void poll(Shard shard) {
+        List<String> instruments;
+        DateTime since;
+        synchronized (shard) {
+            instruments = shard.instruments;
+            since = shard.since;
+        }
+        if (instruments.isEmpty())
+            return;
+
+        PricingGetRequest request = new PricingGetRequest(accountId, instruments);
+        if (since != null)
+            request.setSince(since);
+
+        ScheduledContext.Timed<PricingGetResponse> timed;
+        try {
+            timed = ScheduledContext.timed(ctx, () -> ctx.pricing.get(request));
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted())
+                return;  // stopped
+            synchronized (shard) {
+                shard.errors++;
+            }
+            System.err.println("Shard "+shard.id+" poll failed: "+e);
+            return;
+        }
+        PricingGetResponse resp = timed.getResponse();
+        long latency = timed.getElapsedNanos();
+        if (monitor != null) {
+            monitor.onServerTime(timed.getSentMicros(), timed.getReceivedMicros(), resp.getTime());
+            for (ClientPrice price : resp.getPrices())
+                monitor.onPriceReceived(price.getInstrument().toString(), price.getTime());
+        }
+
+        lock.lock();
+        try {
+            for (ClientPrice price : resp.getPrices()) {
+                merged.add(new Entry(TickSeries.toEpochMicros(price.getTime()), sequence++,
+                        price.getInstrument().toString(), price));
+            }
+            while (merged.size() > maxQueued) {
+                merged.poll();
+                dropped++;
+            }
+            synchronized (shard) {
+                // A rebalance may have rewound the cursor while this poll was in flight
+                if (shard.since == since) {
+                    shard.since = resp.getTime();
+                    shard.sinceMicros = TickSeries.toEpochMicros(resp.getTime());
+                }
+                shard.polls++;
+                shard.lastSuccessMillis = System.currentTimeMillis();
+                shard.latencyNanos = shard.polls == 1 ? latency
+                        : shard.latencyNanos + LATENCY_WEIGHT * (latency - shard.latencyNanos);
+            }
+            advanced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move a quarter of the instruments from the slowest shard to the fastest
+     * one if the slowest has fallen more than {@code rebalanceRatio} behind.
+     * Shards with no latency to compare yet, or that have gone stale, are left
+     * out; moving instruments onto a failing shard would only spread the
+     * failure.
+     */
+    private void rebalance() {
+        long now = System.currentTimeMillis();
+        Shard slowest = null;
+        Shard fastest = null;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (shard.polls == 0 || now - shard.lastSuccessMillis > staleAfterMillis)
+                    continue;
+                if (slowest == null || shard.latencyNanos > slowest.latencyNanos)
+                    slowest = shard;
+                if (fastest == null || shard.latencyNanos < fastest.latencyNanos)
+                    fastest = shard;
+            }
+        }
+        if (slowest == null || slowest == fastest)
+            return;
+
+        Shard first = slowest.id < fastest.id ? slowest : fastest;
+        Shard second = first == slowest ? fastest : slowest;
+        synchronized (first) {
+            synchronized (second) {
+                if (slowest.instruments.size() < 2
+                        || slowest.latencyNanos < rebalanceRatio * fastest.latencyNanos)
+                    return;
+                int move = Math.max(1, slowest.instruments.size() / 4);
+                int keep = slowest.instruments.size() - move;
+                List<String> moved = slowest.instruments.subList(keep, slowest.instruments.size());
+
+                List<String> grown = new ArrayList<>(fastest.instruments);
+                grown.addAll(moved);
+                fastest.instruments = Collections.unmodifiableList(grown);
+                slowest.instruments = Collections.unmodifiableList(
+                        new ArrayList<>(slowest.instruments.subList(0, keep)));
+
+                // Rewind the receiving shard so the moved instruments miss no updates;
+                // duplicates this produces are dropped by take()
+                if (slowest.sinceMicros < fastest.sinceMicros) {
+                    fastest.since = slowest.since;
+                    fastest.sinceMicros = slowest.sinceMicros;
+                }
+                // Let the shards settle at their new sizes before comparing again
+                slowest.latencyNanos = fastest.latencyNanos;
+
+                System.out.println("Rebalanced "+moved.size()+" instruments from shard "
+                        +slowest.id+" to shard "+fastest.id);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        ScheduledContext ctx = new ScheduledContext(Config.URL, Config.TOKEN, "ShardedPricePolling");
+
+        AccountID accountId = Config.ACCOUNTID;
+        int shardSize = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<String> instruments = args.length > 1
+                ? Arrays.asList(args).subList(1, args.length)
+                : Arrays.asList(
+                        "EUR_USD", "USD_JPY", "GBP_USD", "USD_CHF", "AUD_USD", "USD_CAD", "NZD_USD",
+                        "EUR_GBP", "EUR_JPY", "EUR_CHF", "EUR_AUD", "EUR_CAD", "EUR_NZD",
+                        "GBP_JPY", "GBP_CHF", "GBP_AUD", "GBP_CAD", "GBP_NZD",
+                        "AUD_JPY", "AUD_CHF", "AUD_CAD", "AUD_NZD", "CAD_JPY", "CAD_CHF",
+                        "CHF_JPY", "NZD_JPY", "NZD_CHF", "NZD_CAD");
+
+        StalenessMonitor monitor = new StalenessMonitor();
+        ShardedPricePolling poller = new ShardedPricePolling(ctx, accountId, instruments, shardSize)
+                .setMonitor(monitor);
+        poller.start();
+        monitor.start(1000);
+        try {
+            long nextReport = System.currentTimeMillis();
+            while (true) {
+                ClientPrice price = poller.take();
+                if (price == null)
+                    break;
+                System.out.println(price);
+                monitor.onPriceConsumed(price.getInstrument().toString(), price.getTime());
+
+                if (System.currentTimeMillis() >= nextReport) {
+                    for (Shard shard : poller.getShards())
+                        System.out.println(shard);
+                    System.out.println(String.format("%d prices dropped, %d late",
+                            poller.getDropped(), poller.getLate()));
+                    System.out.println(ctx.getScheduler());
+                    System.out.println(monitor);
+                    nextReport += 10000;
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            poller.stop();
+            monitor.stop();
+        }
+    }
+}
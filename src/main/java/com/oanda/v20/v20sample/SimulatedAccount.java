@@ -0,0 +1,151 @@
+package com.oanda.v20.v20sample;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.oanda.v20.account.AccountID;
+import com.oanda.v20.order.MarketOrderRequest;
+import com.oanda.v20.order.OrderCreateRequest;
+
+/**
+ * A minimal simulated account used by {@link TickReplay}.  Market orders are
+ * filled immediately at the most recently replayed ask (buy) or bid (sell) for
+ * the instrument, and positions are netted per instrument the same way a v20
+ * account nets them.
+ * <p>
+ * Profit/loss is expressed in the quote currency of each instrument and simply
+ * summed across instruments; no home currency conversion is attempted.
+ */
+public class SimulatedAccount implements TradingAccount {
+
+    private static final Gson GSON = new Gson();
+    private static final AccountID SIMULATED = new AccountID("simulated");
+
+    private final TickSeries ticks;
+    private final Map<String, Integer> index = new HashMap<>();
+    private final double[] lastBid;
+    private final double[] lastAsk;
+    private final double[] units;
+    private final double[] averagePrice;
+    private double realizedPL;
+    private int fills;
+    private int tradesOpened;
+    private int tradesClosed;
+
+    public SimulatedAccount(TickSeries ticks) {
+        this.ticks = ticks;
+        int count = ticks.instrumentCount();
+        lastBid = new double[count];
+        lastAsk = new double[count];
+        units = new double[count];
+        averagePrice = new double[count];
+        Arrays.fill(lastBid, Double.NaN);
+        Arrays.fill(lastAsk, Double.NaN);
+        for (int i = 0; i < count; i++)
+            index.put(ticks.instrumentName(i), i);
+    }
+
+    void onTick(int i) {
+        int instrument = ticks.instrument(i);
+        lastBid[instrument] = ticks.bid(i);
+        lastAsk[instrument] = ticks.ask(i);
+    }
+
+    private int indexOf(String instrument) {
+        Integer i = index.get(instrument);
+        if (i == null)
+            throw new IllegalArgumentException("Instrument "+instrument+" is not in the tick series");
+        return i;
+    }
+
+    @Override
+    public AccountID getAccountId() {
+        return SIMULATED;
+    }
+
+    /**
+     * Fill the order the same way {@code ctx.order.create()} would.  Only
+     * {@link MarketOrderRequest}s can be simulated.
+     */
+    @Override
+    public Fill create(OrderCreateRequest request) {
+        // OrderCreateRequest has no getter for its order, so read it back
+        // through its JSON body
+        JsonElement order = GSON.toJsonTree(request.getBody()).getAsJsonObject().get("order");
+        JsonElement type = order == null ? null : order.getAsJsonObject().get("type");
+        if (type == null || !type.getAsString().equals("MARKET"))
+            throw new IllegalArgumentException("Only market orders can be simulated, not "+order);
+        return create(GSON.fromJson(order, MarketOrderRequest.class));
+    }
+
+    public Fill create(MarketOrderRequest request) {
+        String instrument = request.getInstrument().toString();
+        double orderUnits = request.getUnits().doubleValue();
+        double realized = realizedPL;
+        double price = marketOrder(indexOf(instrument), orderUnits);
+        return new Fill(instrument, orderUnits, price, realizedPL - realized);
+    }
+
+    /**
+     * Fill a market order for the given instrument index without allocating.
+     * Positive units buy, negative units sell.
+     *
+     * @return the fill price
+     */
+    public double marketOrder(int instrument, double orderUnits) {
+        double price = orderUnits > 0 ? lastAsk[instrument] : lastBid[instrument];
+        if (Double.isNaN(price))
+            throw new IllegalStateException("No price yet for "+ticks.instrumentName(instrument));
+        if (orderUnits == 0)
+            return price;
+        fills++;
+
+        double position = units[instrument];
+        if (position == 0 || Math.signum(position) == Math.signum(orderUnits)) {
+            double size = Math.abs(position) + Math.abs(orderUnits);
+            averagePrice[instrument] = (averagePrice[instrument] * Math.abs(position)
+                    + price * Math.abs(orderUnits)) / size;
+            units[instrument] = position + orderUnits;
+            tradesOpened++;
+            return price;
+        }
+
+        double closing = Math.min(Math.abs(orderUnits), Math.abs(position));
+        realizedPL += closing * (price - averagePrice[instrument]) * Math.signum(position);
+        units[instrument] = position + orderUnits;
+        if (units[instrument] == 0) {
+            averagePrice[instrument] = 0;
+            tradesClosed++;
+        } else if (Math.signum(units[instrument]) != Math.signum(position)) {
+            averagePrice[instrument] = price;
+            tradesClosed++;
+            tradesOpened++;
+        }
+        return price;
+    }
+
+    public double getUnits(int instrument) { return units[instrument]; }
+    @Override
+    public double getUnits(String instrument) { return units[indexOf(instrument)]; }
+    public double getRealizedPL() { return realizedPL; }
+    public int getFills() { return fills; }
+    public int getTradesOpened() { return tradesOpened; }
+    public int getTradesClosed() { return tradesClosed; }
+
+    /**
+     * Mark all open positions to the last replayed bid (long) or ask (short).
+     */
+    public double getUnrealizedPL() {
+        double pl = 0;
+        for (int i = 0; i < units.length; i++) {
+            if (units[i] > 0)
+                pl += (lastBid[i] - averagePrice[i]) * units[i];
+            else if (units[i] < 0)
+                pl += (lastAsk[i] - averagePrice[i]) * units[i];
+        }
+        return pl;
+    }
+}
@@ -0,0 +1,306 @@
+package com.oanda.v20.v20sample;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.oanda.v20.primitives.DateTime;
+import com.oanda.v20.transaction.Transaction;
+import com.oanda.v20.transaction.TransactionID;
+
+/**
+ * Measures how stale the locally held view of prices and account state is.
+ * <ul>
+ * <li>Tick age: how old each price is, according to its own timestamp, when
+ *     it is received from the server and again when it is consumed.</li>
+ * <li>Account lag: how many transactions the account view was behind when it
+ *     was polled, and how long the oldest of them had been waiting.</li>
+ * <li>Clock offset: the difference between the server and local clocks,
+ *     estimated from the server timestamp of the fastest recent round trip.
+ *     All ages are corrected by it.</li>
+ * </ul>
+ * Rolling percentiles are kept over the most recent samples of each metric.
+ * {@link #start(long)} checks them periodically and fires an
+ * {@link AlertListener} when a metric crosses its threshold, when it recovers,
+ * and when prices or account polls stop arriving altogether.
+ */
+public class StalenessMonitor {
+
+    /**
+     * Notified when a metric crosses its threshold ({@code raised}) and when it
+     * drops back under it.
+     */
+    public interface AlertListener {
+        void onAlert(String metric, String key, double value, double threshold, boolean raised);
+    }
+
+    /**
+     * A ring buffer of the most recent samples of one metric.
+     */
+    static class Window {
+        private final long[] samples;
+        private int count;
+        private int next;
+
+        Window(int size) {
+            samples = new long[size];
+        }
+
+        synchronized void add(long sample) {
+            samples[next] = sample;
+            next = (next + 1) % samples.length;
+            if (count < samples.length)
+                count++;
+        }
+
+        /**
+         * @return the given percentile (0-100), or NaN if there are no samples
+         */
+        synchronized double percentile(double p) {
+            if (count == 0)
+                return Double.NaN;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p / 100 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+    private static class InstrumentState {
+        final Window receiptAge;
+        final Window consumptionAge;
+        volatile long lastReceived;
+
+        InstrumentState(int window) {
+            receiptAge = new Window(window);
+            consumptionAge = new Window(window);
+        }
+    }
+
+    private static final int OFFSET_SAMPLES = 32;
+
+    private final int windowSize;
+    private final ConcurrentHashMap<String, InstrumentState> instruments = new ConcurrentHashMap<>();
+    private final Window accountTimeLag;
+    private final Window accountTransactionLag;
+    private volatile long lastAccountPoll;
+    private final long[] offsetRtt = new long[OFFSET_SAMPLES];
+    private final long[] offsetSample = new long[OFFSET_SAMPLES];
+    private int offsetCount;
+    private int offsetNext;
+    private volatile long clockOffset;
+    private final Set<String> raised = new HashSet<>();
+    private AlertListener listener = (metric, key, value, threshold, up) ->
+            System.err.println(String.format("%s %s %s %.1f (threshold %.1f)",
+                    up ? "ALERT" : "RECOVERED", metric, key, value, threshold));
+    private double percentile = 95;
+    private long tickAgeThreshold = 2000;
+    private long consumptionAgeThreshold = 3000;
+    private long accountLagThreshold = 5000;
+    private long accountTransactionThreshold = 50;
+    private long stallThreshold = 10000;
+    private ScheduledExecutorService executor;
+
+    public StalenessMonitor() {
+        this(1024);
+    }
+
+    /**
+     * @param windowSize how many recent samples percentiles are computed over
+     */
+    public StalenessMonitor(int windowSize) {
+        this.windowSize = windowSize;
+        accountTimeLag = new Window(windowSize);
+        accountTransactionLag = new Window(windowSize);
+    }
+
+    public StalenessMonitor setAlertListener(AlertListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @param percentile   the percentile compared against each threshold
+     * @param tickAge      price age at receipt, in milliseconds
+     * @param consumption  price age at consumption, in milliseconds
+     * @param accountLag   account lag, in milliseconds
+     * @param transactions account lag, in transactions
+     * @param stall        time without any price or account poll, in milliseconds
+     */
+    public StalenessMonitor setThresholds(double percentile, long tickAge, long consumption,
+            long accountLag, long transactions, long stall) {
+        this.percentile = percentile;
+        this.tickAgeThreshold = tickAge;
+        this.consumptionAgeThreshold = consumption;
+        this.accountLagThreshold = accountLag;
+        this.accountTransactionThreshold = transactions;
+        this.stallThreshold = stall;
+        return this;
+    }
+
+    static long nowMicros() {
+        return System.currentTimeMillis() * 1000;
+    }
+
+    /**
+     * Record a request/response round trip that carried a server timestamp.
+     * The offset is estimated NTP style as the server time minus the local
+     * midpoint of the round trip, keeping the sample with the shortest round
+     * trip among the most recent ones since it has the smallest error.
+     *
+     * @param sentMicros     local time the request was sent
+     * @param receivedMicros local time the response was received
+     * @param serverTime     the server timestamp in the response
+     */
+    public void onServerTime(long sentMicros, long receivedMicros, DateTime serverTime) {
+        long server = TickSeries.toEpochMicros(serverTime);
+        long rtt = receivedMicros - sentMicros;
+        synchronized (offsetRtt) {
+            offsetRtt[offsetNext] = rtt;
+            offsetSample[offsetNext] = server - (sentMicros + rtt / 2);
+            offsetNext = (offsetNext + 1) % OFFSET_SAMPLES;
+            if (offsetCount < OFFSET_SAMPLES)
+                offsetCount++;
+            int best = 0;
+            for (int i = 1; i < offsetCount; i++) {
+                if (offsetRtt[i] < offsetRtt[best])
+                    best = i;
+            }
+            clockOffset = offsetSample[best];
+        }
+    }
+
+    /**
+     * @return the estimated server clock minus the local clock, in microseconds
+     */
+    public long getClockOffsetMicros() {
+        return clockOffset;
+    }
+
+    private long serverNowMicros() {
+        return nowMicros() + clockOffset;
+    }
+
+    private InstrumentState state(String instrument) {
+        return instruments.computeIfAbsent(instrument, name -> new InstrumentState(windowSize));
+    }
+
+    /**
+     * Record that a price stamped {@code time} has just been received.
+     */
+    public void onPriceReceived(String instrument, DateTime time) {
+        InstrumentState state = state(instrument);
+        state.receiptAge.add(serverNowMicros() - TickSeries.toEpochMicros(time));
+        state.lastReceived = nowMicros();
+    }
+
+    /**
+     * Record that a price stamped {@code time} has just been acted upon.
+     */
+    public void onPriceConsumed(String instrument, DateTime time) {
+        state(instrument).consumptionAge.add(serverNowMicros() - TickSeries.toEpochMicros(time));
+    }
+
+    /**
+     * Record an account changes poll.
+     *
+     * @param previous     the transaction ID the poll was made since
+     * @param latest       the last transaction ID returned by the poll
+     * @param transactions the transactions returned by the poll
+     */
+    public void onAccountChanges(TransactionID previous, TransactionID latest, List<? extends Transaction> transactions) {
+        long behind = Long.parseLong(latest.toString()) - Long.parseLong(previous.toString());
+        accountTransactionLag.add(behind);
+
+        long oldest = Long.MAX_VALUE;
+        for (Transaction transaction : transactions)
+            oldest = Math.min(oldest, TickSeries.toEpochMicros(transaction.getTime()));
+        accountTimeLag.add(oldest == Long.MAX_VALUE ? 0 : serverNowMicros() - oldest);
+        lastAccountPoll = nowMicros();
+    }
+
+    /**
+     * Check every metric every {@code periodMillis} on a background thread.
+     */
+    public synchronized void start(long periodMillis) {
+        if (executor != null)
+            return;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "StalenessMonitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::check, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Compare every metric with its threshold and fire alerts on changes.
+     */
+    public void check() {
+        long now = nowMicros();
+        for (Map.Entry<String, InstrumentState> entry : instruments.entrySet()) {
+            InstrumentState state = entry.getValue();
+            alert("tick-age", entry.getKey(), state.receiptAge.percentile(percentile) / 1000, tickAgeThreshold);
+            alert("consumption-age", entry.getKey(), state.consumptionAge.percentile(percentile) / 1000,
+                    consumptionAgeThreshold);
+            alert("feed-stall", entry.getKey(), (now - state.lastReceived) / 1000.0, stallThreshold);
+        }
+        if (lastAccountPoll != 0) {
+            alert("account-lag", "time", accountTimeLag.percentile(percentile) / 1000, accountLagThreshold);
+            alert("account-lag", "transactions", accountTransactionLag.percentile(percentile),
+                    accountTransactionThreshold);
+            alert("poll-stall", "account", (now - lastAccountPoll) / 1000.0, stallThreshold);
+        }
+    }
+
+    private void alert(String metric, String key, double value, double threshold) {
+        if (Double.isNaN(value))
+            return;
+        String id = metric + " " + key;
+        boolean over = value > threshold;
+        boolean changed;
+        synchronized (raised) {
+            changed = over ? raised.add(id) : raised.remove(id);
+        }
+        if (changed)
+            listener.onAlert(metric, key, value, threshold, over);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("clock offset %.1f ms", clockOffset / 1000.0));
+        for (Map.Entry<String, InstrumentState> entry : new TreeMap<>(instruments).entrySet()) {
+            InstrumentState state = entry.getValue();
+            sb.append(String.format("%n%-8s tick age p50/p95/p99 %s, at consumption %s",
+                    entry.getKey(), millis(state.receiptAge), millis(state.consumptionAge)));
+        }
+        if (lastAccountPoll != 0) {
+            sb.append(String.format("%naccount lag p50/p95/p99 %s, transactions %.0f/%.0f/%.0f",
+                    millis(accountTimeLag),
+                    accountTransactionLag.percentile(50),
+                    accountTransactionLag.percentile(95),
+                    accountTransactionLag.percentile(99)));
+        }
+        return sb.toString();
+    }
+
+    private static String millis(Window window) {
+        return String.format("%.1f/%.1f/%.1f ms",
+                window.percentile(50) / 1000, window.percentile(95) / 1000, window.percentile(99) / 1000);
+    }
+}
@@ -3,7 +3,6 @@ package com.oanda.v20.v20sample;
 import java.util.List;
 
 import com.oanda.v20.Context;
-import com.oanda.v20.ContextBuilder;
 import com.oanda.v20.account.Account;
 import com.oanda.v20.account.AccountGetResponse;
 import com.oanda.v20.account.AccountID;
@@ -33,13 +32,12 @@ import com.oanda.v20.transaction.TransactionID;
 public abstract class StepByStepOrder {
 
     public static void main(String[] args) {
-        Context ctx = new ContextBuilder(Config.URL)
-        		.setToken(Config.TOKEN)
-        		.setApplication("StepByStepOrder")
-        		.build();
+        Context ctx = new ScheduledContext(Config.URL, Config.TOKEN, "StepByStepOrder");
         
-        AccountID accountId = Config.ACCOUNTID;
-        InstrumentName tradeableInstrument = Config.INSTRUMENT;
+        run(ctx, Config.ACCOUNTID, Config.INSTRUMENT);
+    }
+
+    static void run(Context ctx, AccountID accountId, InstrumentName tradeableInstrument) {
 
         // EXAMPLE: No parameters
         System.out.println("Make sure we have a valid account");
@@ -4,7 +4,6 @@ import java.util.Arrays;
 import java.util.List;
 
 import com.oanda.v20.Context;
-import com.oanda.v20.ContextBuilder;
 import com.oanda.v20.ExecuteException;
 import com.oanda.v20.RequestException;
 import com.oanda.v20.account.Account;
@@ -57,13 +56,20 @@ import com.oanda.v20.transaction.TransactionType;
  */
 public class TestTradesAndOrders {
 
-    Context ctx = new ContextBuilder(Config.URL)
-    		.setToken(Config.TOKEN)
-    		.setApplication("TestTradesAndOrders")
-    		.build();
-    
-    AccountID accountId = Config.ACCOUNTID;
-    InstrumentName tradeableInstrument = Config.INSTRUMENT;
+    Context ctx;
+    AccountID accountId;
+    InstrumentName tradeableInstrument;
+
+    TestTradesAndOrders() {
+        this(new ScheduledContext(Config.URL, Config.TOKEN, "TestTradesAndOrders"),
+        		Config.ACCOUNTID, Config.INSTRUMENT);
+    }
+
+    TestTradesAndOrders(Context ctx, AccountID accountId, InstrumentName tradeableInstrument) {
+        this.ctx = ctx;
+        this.accountId = accountId;
+        this.tradeableInstrument = tradeableInstrument;
+    }
 
     public static void main(String[] args) {
         try {
@@ -73,7 +79,7 @@ public class TestTradesAndOrders {
         }
     }
 
-    private void runTest() throws ExecuteException, RequestException
+    void runTest() throws ExecuteException, RequestException
     {
         System.out.println("TEST - GET /accounts");
         System.out.println("CHECK 200 - The list of authorized AccoungetInstrumentsts has been provided, expecting "+accountId+" in list.");
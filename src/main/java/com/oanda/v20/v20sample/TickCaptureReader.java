@@ -0,0 +1,531 @@
+package com.oanda.v20.v20sample;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Memory maps a capture file written by {@link TickCaptureWriter} and iterates
+ * its ticks.
+ * <p>
+ * Only the sparse block index is read up front.  A {@link Cursor} seeks to a
+ * timestamp with a binary search over the index, then decodes one block at a
+ * time into reusable buffers, so iterating ticks does not allocate.  A cursor
+ * holds native zlib state until it is exhausted or closed, so close cursors
+ * that are not read to the end.
+ * <p>
+ * A file that was never closed, because the writer died, has no index.  Its
+ * index is rebuilt by scanning the block headers instead, which decodes every
+ * block once; see {@link #isRecovered()}.
+ * <p>
+ * Files larger than 2GB cannot be mapped in one piece and are rejected.
+ */
+public class TickCaptureReader implements Closeable {
+
+    /** Block header bytes after the instrument name. */
+    private static final int BLOCK_HEADER_SIZE = 8 * 3 + 1 + 4 * 3;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final String[] instruments;
+    private final Map<String, Integer> instrumentIndex = new LinkedHashMap<>();
+    private final int[][] blocks;      // per instrument, block numbers in time order
+    private final long[] firstTime;    // per block
+    private final long[] lastTime;     // per block
+    private final long[] offset;       // per block
+    private final int[] count;         // per block
+    private final boolean recovered;
+    private long tickCount;
+
+    public TickCaptureReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Capture file "+file+" is too large to map ("+size+" bytes)");
+            if (size < 8)
+                throw new IOException("Capture file "+file+" is truncated");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt(0) != TickCaptureWriter.MAGIC)
+                throw new IOException("File "+file+" is not a tick capture file");
+            if (buffer.getInt(4) != TickCaptureWriter.VERSION)
+                throw new IOException("Unsupported capture version "+buffer.getInt(4));
+
+            List<String> blockInstrument = new ArrayList<>();
+            List<long[]> blockInfo = new ArrayList<>(); // firstTime, lastTime, offset, count
+            recovered = !readIndex(blockInstrument, blockInfo);
+            if (recovered) {
+                blockInstrument.clear();
+                blockInfo.clear();
+                scanBlocks(blockInstrument, blockInfo);
+            }
+
+            int blockCount = blockInfo.size();
+            firstTime = new long[blockCount];
+            lastTime = new long[blockCount];
+            offset = new long[blockCount];
+            count = new int[blockCount];
+            List<List<Integer>> perInstrument = new ArrayList<>();
+            for (int b = 0; b < blockCount; b++) {
+                String instrument = blockInstrument.get(b);
+                Integer idx = instrumentIndex.get(instrument);
+                if (idx == null) {
+                    idx = instrumentIndex.size();
+                    instrumentIndex.put(instrument, idx);
+                    perInstrument.add(new ArrayList<>());
+                }
+                perInstrument.get(idx).add(b);
+                long[] info = blockInfo.get(b);
+                firstTime[b] = info[0];
+                lastTime[b] = info[1];
+                offset[b] = info[2];
+                count[b] = (int) info[3];
+                tickCount += count[b];
+            }
+
+            instruments = instrumentIndex.keySet().toArray(new String[0]);
+            blocks = new int[instruments.length][];
+            for (int i = 0; i < instruments.length; i++) {
+                List<Integer> list = perInstrument.get(i);
+                blocks[i] = new int[list.size()];
+                for (int j = 0; j < list.size(); j++)
+                    blocks[i][j] = list.get(j);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the index written by {@link TickCaptureWriter#close()}.
+     *
+     * @return false if the file has no valid footer, i.e. it was not closed
+     */
+    private boolean readIndex(List<String> blockInstrument, List<long[]> blockInfo) {
+        int size = buffer.limit();
+        if (size < 8 + TickCaptureWriter.FOOTER_SIZE || buffer.getInt(size - 4) != TickCaptureWriter.MAGIC)
+            return false;
+        int footer = size - TickCaptureWriter.FOOTER_SIZE;
+        long indexOffset = buffer.getLong(footer);
+        int blockCount = buffer.getInt(footer + 8);
+        if (indexOffset < 8 || indexOffset > footer || blockCount < 0)
+            return false;
+
+        int position = (int) indexOffset;
+        for (int b = 0; b < blockCount; b++) {
+            if (position + 2 > footer)
+                return false;
+            int nameLength = buffer.getShort(position) & 0xFFFF;
+            if (position + 2 + nameLength + 28 > footer)
+                return false;
+            blockInstrument.add(getString(position + 2, nameLength));
+            position += 2 + nameLength;
+            blockInfo.add(new long[] {
+                    buffer.getLong(position), buffer.getLong(position + 8),
+                    buffer.getLong(position + 16), buffer.getInt(position + 24) });
+            position += 28;
+        }
+        return true;
+    }
+
+    /**
+     * Rebuild the index of a file that was never closed by walking the block
+     * headers from the start of the file.  Scanning stops at the first block
+     * that is incomplete or does not decode, which is where the writer died.
+     */
+    private void scanBlocks(List<String> blockInstrument, List<long[]> blockInfo) {
+        int size = buffer.limit();
+        Inflater inflater = new Inflater();
+        byte[] compressed = new byte[0];
+        byte[] raw = new byte[0];
+        try {
+            int position = 8;
+            while (position + 2 <= size) {
+                int nameLength = buffer.getShort(position) & 0xFFFF;
+                int header = position + 2 + nameLength;
+                if (nameLength == 0 || header + BLOCK_HEADER_SIZE > size)
+                    break;
+                long baseTime = buffer.getLong(header);
+                int ticks = buffer.getInt(header + 25);
+                int rawLength = buffer.getInt(header + 29);
+                int compressedLength = buffer.getInt(header + 33);
+                int data = header + BLOCK_HEADER_SIZE;
+                if (ticks <= 0 || rawLength < ticks * 3 || compressedLength <= 0
+                        || compressedLength > size - data)
+                    break;
+
+                if (compressed.length < compressedLength)
+                    compressed = new byte[compressedLength];
+                if (raw.length <= rawLength)
+                    raw = new byte[rawLength + 1];
+                ByteBuffer view = buffer.duplicate();
+                view.position(data);
+                view.get(compressed, 0, compressedLength);
+                if (!inflate(inflater, compressed, compressedLength, raw, rawLength))
+                    break;
+
+                // Sum the time deltas to find the block's last tick
+                long time = baseTime;
+                int rawPosition = 0;
+                for (int i = 0; i < ticks * 3; i++) {
+                    long v = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        if (rawPosition == rawLength || shift > 63)
+                            return;
+                        b = raw[rawPosition++];
+                        v |= (long) (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    if (i % 3 == 0)
+                        time += (v >>> 1) ^ -(v & 1);
+                }
+
+                blockInstrument.add(getString(position + 2, nameLength));
+                blockInfo.add(new long[] { baseTime, time, position, ticks });
+                position = data + compressedLength;
+            }
+        } catch (DataFormatException e) {
+            // A partially written block; everything before it is intact
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Inflate a block to the end of its zlib stream, which checks its checksum.
+     * {@code raw} must have room for more than {@code rawLength} bytes so that
+     * a block which decodes to too much data is caught too.
+     *
+     * @return false if the block does not decode to exactly {@code rawLength}
+     *         bytes
+     */
+    private static boolean inflate(Inflater inflater, byte[] compressed, int compressedLength,
+            byte[] raw, int rawLength) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        int n = 0;
+        while (!inflater.finished()) {
+            int inflated = inflater.inflate(raw, n, raw.length - n);
+            if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary() || n == raw.length))
+                return false;
+            n += inflated;
+        }
+        return n == rawLength;
+    }
+
+    private String getString(int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buffer.get(position + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if the file was not closed and its index was rebuilt by
+     *         scanning the blocks
+     */
+    public boolean isRecovered() { return recovered; }
+
+    public int instrumentCount() { return instruments.length; }
+    public String instrumentName(int index) { return instruments[index]; }
+    public long tickCount() { return tickCount; }
+
+    /**
+     * @return the time of the earliest captured tick, or 0 if the capture is empty
+     */
+    public long startTime() {
+        long start = firstTime.length == 0 ? 0 : Long.MAX_VALUE;
+        for (long t : firstTime)
+            start = Math.min(start, t);
+        return start;
+    }
+
+    /**
+     * @return the time of the latest captured tick, or 0 if the capture is empty
+     */
+    public long endTime() {
+        long end = lastTime.length == 0 ? 0 : Long.MIN_VALUE;
+        for (long t : lastTime)
+            end = Math.max(end, t);
+        return end;
+    }
+
+    /**
+     * @return the index of the named instrument, or -1 if it was not captured
+     */
+    public int instrumentIndex(String name) {
+        Integer idx = instrumentIndex.get(name);
+        return idx == null ? -1 : idx;
+    }
+
+    /**
+     * A cursor over the ticks of a single instrument, from a given timestamp
+     * onwards.
+     */
+    public Cursor cursor(String instrument, long fromMicros) {
+        int idx = instrumentIndex(instrument);
+        if (idx < 0)
+            throw new IllegalArgumentException("Instrument "+instrument+" is not in the capture");
+        return new InstrumentCursor(idx, fromMicros);
+    }
+
+    /**
+     * A cursor over the ticks of every instrument merged in time order, from a
+     * given timestamp onwards.
+     */
+    public Cursor cursor(long fromMicros) {
+        return new MergedCursor(fromMicros);
+    }
+
+    /**
+     * Load the whole capture into a {@link TickSeries} for replay.
+     */
+    public TickSeries toSeries() {
+        TickSeries.Builder builder = new TickSeries.Builder();
+        try (Cursor cursor = cursor(Long.MIN_VALUE)) {
+            while (cursor.next())
+                builder.add(instruments[cursor.instrument()], cursor.time(), cursor.bid(), cursor.ask());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Whether the given file starts with the capture file magic number.
+     */
+    public static boolean isCaptureFile(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return ch.read(magic, 0) == 4 && magic.getInt(0) == TickCaptureWriter.MAGIC;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Iterates ticks without allocating.  Values are only valid after
+     * {@link #next()} has returned {@code true}.
+     */
+    public interface Cursor extends Closeable {
+        boolean next();
+        int instrument();
+        long time();
+        double bid();
+        double ask();
+
+        /**
+         * Release the cursor's inflater.  The cursor cannot be used afterwards.
+         */
+        @Override
+        void close();
+    }
+
+    private class InstrumentCursor implements Cursor {
+        private final int instrument;
+        private final int[] instrumentBlocks;
+        private final Inflater inflater = new Inflater();
+        private byte[] compressed = new byte[0];
+        private byte[] raw = new byte[0];
+        private int nextBlock;
+        private int currentBlock;
+        private int rawPosition;
+        private int rawEnd;
+        private int remaining;
+        private double scale;
+        private long time;
+        private long bid;
+        private long ask;
+        private long from;
+
+        InstrumentCursor(int instrument, long fromMicros) {
+            this.instrument = instrument;
+            this.instrumentBlocks = blocks[instrument];
+            this.from = fromMicros;
+
+            // First block whose last tick is at or after the requested time
+            int lo = 0, hi = instrumentBlocks.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lastTime[instrumentBlocks[mid]] < fromMicros)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            nextBlock = lo;
+        }
+
+        @Override
+        public boolean next() {
+            while (true) {
+                if (remaining == 0) {
+                    if (nextBlock == instrumentBlocks.length) {
+                        close();
+                        return false;
+                    }
+                    loadBlock(instrumentBlocks[nextBlock++]);
+                }
+                time += getVarLong();
+                bid += getVarLong();
+                ask += getVarLong();
+                remaining--;
+                if (time >= from) {
+                    from = Long.MIN_VALUE;
+                    return true;
+                }
+            }
+        }
+
+        @Override public int instrument() { return instrument; }
+        @Override public long time() { return time; }
+        @Override public double bid() { return bid / scale; }
+        @Override public double ask() { return ask / scale; }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+
+        private void loadBlock(int block) {
+            int position = (int) offset[block];
+            position += 2 + (buffer.getShort(position) & 0xFFFF);
+            time = buffer.getLong(position);
+            bid = buffer.getLong(position + 8);
+            ask = buffer.getLong(position + 16);
+            scale = Math.pow(10, buffer.get(position + 24));
+            remaining = buffer.getInt(position + 25);
+            int rawLength = buffer.getInt(position + 29);
+            int compressedLength = buffer.getInt(position + 33);
+            position += BLOCK_HEADER_SIZE;
+            if (remaining <= 0 || rawLength < remaining * 3 || compressedLength <= 0
+                    || compressedLength > buffer.limit() - position)
+                throw new IllegalStateException("Corrupt block at offset "+offset[block]);
+
+            if (compressed.length < compressedLength)
+                compressed = new byte[compressedLength];
+            if (raw.length <= rawLength)
+                raw = new byte[rawLength + 1];
+            // Absolute bulk get is Java 13+, so read through a duplicate
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            view.get(compressed, 0, compressedLength);
+
+            try {
+                if (!inflate(inflater, compressed, compressedLength, raw, rawLength))
+                    throw new IllegalStateException("Corrupt block at offset "+offset[block]);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt block at offset "+offset[block], e);
+            }
+            currentBlock = block;
+            rawPosition = 0;
+            rawEnd = rawLength;
+        }
+
+        private long getVarLong() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (rawPosition == rawEnd)
+                    throw new IllegalStateException("Corrupt block at offset "+offset[currentBlock]);
+                b = raw[rawPosition++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+
+    private class MergedCursor implements Cursor {
+        private final InstrumentCursor[] cursors;
+        private final boolean[] valid;
+        private int current = -1;
+
+        MergedCursor(long fromMicros) {
+            cursors = new InstrumentCursor[instruments.length];
+            valid = new boolean[instruments.length];
+            try {
+                for (int i = 0; i < cursors.length; i++) {
+                    cursors[i] = new InstrumentCursor(i, fromMicros);
+                    valid[i] = cursors[i].next();
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean next() {
+            if (current >= 0)
+                valid[current] = cursors[current].next();
+            current = -1;
+            for (int i = 0; i < cursors.length; i++) {
+                if (valid[i] && (current < 0 || cursors[i].time() < cursors[current].time()))
+                    current = i;
+            }
+            return current >= 0;
+        }
+
+        @Override public int instrument() { return current; }
+        @Override public long time() { return cursors[current].time(); }
+        @Override public double bid() { return cursors[current].bid(); }
+        @Override public double ask() { return cursors[current].ask(); }
+
+        @Override
+        public void close() {
+            for (InstrumentCursor cursor : cursors) {
+                if (cursor != null)
+                    cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Scan a capture file and report throughput.
+     * <p>
+     * Usage: {@code TickCaptureReader <capturefile> [fromMicros]}
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: TickCaptureReader <capturefile> [fromMicros]");
+            System.exit(1);
+        }
+        try (TickCaptureReader reader = new TickCaptureReader(Paths.get(args[0]))) {
+            if (reader.isRecovered())
+                System.out.println("Capture was not closed, index rebuilt from "+reader.firstTime.length+" blocks");
+            long from = args.length > 1 ? Long.parseLong(args[1]) : Long.MIN_VALUE;
+            long start = System.nanoTime();
+            long ticks = 0;
+            double checksum = 0;
+            try (Cursor cursor = reader.cursor(from)) {
+                while (cursor.next()) {
+                    ticks++;
+                    checksum += cursor.ask() - cursor.bid();
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("%,d ticks for %d instruments in %.1f ms, %,.0f ticks/s (checksum %.5f)",
+                    ticks, reader.instrumentCount(), elapsed / 1e6, ticks * 1e9 / elapsed, checksum));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.oanda.v20.v20sample;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.oanda.v20.pricing.ClientPrice;
+
+/**
+ * Writes price ticks to a compact capture file that can be read back with
+ * {@link TickCaptureReader}.
+ * <p>
+ * Ticks are buffered per instrument and flushed as blocks of up to
+ * {@code blockSize} ticks.  Within a block timestamps are delta encoded and
+ * bid/ask prices are stored as delta encoded scaled integers, all as zig-zag
+ * varints, and the block is then deflate compressed.  A sparse index with the
+ * time range and file offset of every block is written when the file is closed.
+ * <pre>
+ *   file   := MAGIC VERSION block* index footer
+ *   block  := short length, UTF-8 instrument, long baseTime, long baseBid, long baseAsk,
+ *             byte decimals, int count, int rawLength, int compressedLength,
+ *             byte[compressedLength]
+ *   index  := (short length, UTF-8 instrument, long firstTime, long lastTime, long offset, int count)*
+ *   footer := long indexOffset, int blockCount, int MAGIC
+ * </pre>
+ * Times are epoch microseconds.  A capture file cannot be appended to once it
+ * has been closed, and an existing file is never overwritten; use
+ * {@link #openRolling(Path)} to pick a new name instead.
+ * <p>
+ * Each block is handed to the operating system as soon as it is complete, and
+ * every block header is self-describing, so if the process dies before
+ * {@link #close()} writes the index {@link TickCaptureReader} rebuilds it by
+ * scanning the blocks.  Only the ticks still buffered in partial blocks are
+ * lost.
+ */
+public class TickCaptureWriter implements Closeable {
+
+    static final int MAGIC = 0x56323054; // "V20T"
+    static final int VERSION = 1;
+    static final int FOOTER_SIZE = 8 + 4 + 4;
+    static final int MAX_DECIMALS = 8;
+
+    private static class Pending {
+        final String name;
+        final long[] time;
+        final double[] bid;
+        final double[] ask;
+        int size;
+
+        Pending(String name, int capacity) {
+            this.name = name;
+            this.time = new long[capacity];
+            this.bid = new double[capacity];
+            this.ask = new double[capacity];
+        }
+    }
+
+    private static class IndexEntry {
+        final String name;
+        final long firstTime;
+        final long lastTime;
+        final long offset;
+        final int count;
+
+        IndexEntry(String name, long firstTime, long lastTime, long offset, int count) {
+            this.name = name;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+
+    private final DataOutputStream out;
+    private final int blockSize;
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private final List<IndexEntry> index = new ArrayList<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] raw;
+    private byte[] compressed;
+    private long offset;
+    private boolean closed;
+
+    /**
+     * @throws FileAlreadyExistsException if {@code file} exists
+     */
+    public TickCaptureWriter(Path file) throws IOException {
+        this(file, 4096);
+    }
+
+    /**
+     * @throws FileAlreadyExistsException if {@code file} exists
+     */
+    public TickCaptureWriter(Path file, int blockSize) throws IOException {
+        this.blockSize = blockSize;
+        this.raw = new byte[blockSize * 30];
+        this.compressed = new byte[raw.length + 64];
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        offset = 8;
+    }
+
+    /**
+     * Open a writer on {@code file}, or if it already exists on the first of
+     * {@code name.1.ext}, {@code name.2.ext}, ... that does not, so restarting
+     * a capture never overwrites an earlier one.
+     */
+    public static TickCaptureWriter openRolling(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        Path candidate = file;
+        for (int i = 1; ; i++) {
+            try {
+                return new TickCaptureWriter(candidate);
+            } catch (FileAlreadyExistsException e) {
+                candidate = file.resolveSibling(base+"."+i+extension);
+            }
+        }
+    }
+
+    public synchronized void write(String name, long timeMicros, double bidPrice, double askPrice) throws IOException {
+        if (closed)
+            throw new IOException("Capture file is closed");
+        Pending p = pending.get(name);
+        if (p == null) {
+            p = new Pending(name, blockSize);
+            pending.put(name, p);
+        }
+        p.time[p.size] = timeMicros;
+        p.bid[p.size] = bidPrice;
+        p.ask[p.size] = askPrice;
+        if (++p.size == blockSize)
+            flush(p);
+    }
+
+    public void write(ClientPrice price) throws IOException {
+        if (price.getBids().isEmpty() || price.getAsks().isEmpty())
+            return;
+        write(price.getInstrument().toString(),
+                TickSeries.toEpochMicros(price.getTime()),
+                price.getBids().get(0).getPrice().doubleValue(),
+                price.getAsks().get(0).getPrice().doubleValue());
+    }
+
+    /**
+     * Flush all partially filled blocks and write the index and footer.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            for (Pending p : pending.values()) {
+                if (p.size > 0)
+                    flush(p);
+            }
+            long indexOffset = offset;
+            for (IndexEntry entry : index) {
+                byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeLong(entry.firstTime);
+                out.writeLong(entry.lastTime);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.count);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(index.size());
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void flush(Pending p) throws IOException {
+        int decimals = decimalsFor(p);
+        double scale = Math.pow(10, decimals);
+        long baseBid = Math.round(p.bid[0] * scale);
+        long baseAsk = Math.round(p.ask[0] * scale);
+
+        int length = 0;
+        long lastTime = p.time[0];
+        long lastBid = baseBid;
+        long lastAsk = baseAsk;
+        for (int i = 0; i < p.size; i++) {
+            long bid = Math.round(p.bid[i] * scale);
+            long ask = Math.round(p.ask[i] * scale);
+            length = putVarLong(length, p.time[i] - lastTime);
+            length = putVarLong(length, bid - lastBid);
+            length = putVarLong(length, ask - lastAsk);
+            lastTime = p.time[i];
+            lastBid = bid;
+            lastAsk = ask;
+        }
+
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length)
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        long blockOffset = offset;
+        byte[] name = p.name.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeLong(p.time[0]);
+        out.writeLong(baseBid);
+        out.writeLong(baseAsk);
+        out.writeByte(decimals);
+        out.writeInt(p.size);
+        out.writeInt(length);
+        out.writeInt(compressedLength);
+        out.write(compressed, 0, compressedLength);
+        offset += 2 + name.length + 8 * 3 + 1 + 4 * 3 + compressedLength;
+        out.flush();
+
+        index.add(new IndexEntry(p.name, p.time[0], p.time[p.size - 1], blockOffset, p.size));
+        p.size = 0;
+    }
+
+    /**
+     * The smallest number of decimal places that represents every price in the
+     * block exactly, capped at {@link #MAX_DECIMALS}.
+     */
+    private static int decimalsFor(Pending p) {
+        for (int decimals = 0; decimals < MAX_DECIMALS; decimals++) {
+            double scale = Math.pow(10, decimals);
+            boolean exact = true;
+            for (int i = 0; i < p.size && exact; i++) {
+                exact = isWhole(p.bid[i] * scale) && isWhole(p.ask[i] * scale);
+            }
+            if (exact)
+                return decimals;
+        }
+        return MAX_DECIMALS;
+    }
+
+    private static boolean isWhole(double value) {
+        return Math.abs(value - Math.rint(value)) < 1e-6;
+    }
+
+    private int putVarLong(int position, long value) {
+        if (position + 10 > raw.length)
+            raw = Arrays.copyOf(raw, raw.length * 2);
+        byte[] buffer = raw;
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[position++] = (byte) v;
+        return position;
+    }
+
+    /**
+     * Convert a tick file written by {@link TickSeries.Writer} to a capture file.
+     * <p>
+     * Usage: {@code TickCaptureWriter <tickfile> <capturefile>}
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: TickCaptureWriter <tickfile> <capturefile>");
+            System.exit(1);
+        }
+        try {
+            TickSeries ticks = TickSeries.load(Paths.get(args[0]));
+            Path target = Paths.get(args[1]);
+            try (TickCaptureWriter writer = new TickCaptureWriter(target)) {
+                for (int i = 0; i < ticks.size(); i++)
+                    writer.write(ticks.instrumentName(ticks.instrument(i)), ticks.time(i), ticks.bid(i), ticks.ask(i));
+            }
+            long before = Files.size(Paths.get(args[0]));
+            long after = Files.size(target);
+            System.out.println(String.format("%d ticks, %,d -> %,d bytes (%.1fx)",
+                    ticks.size(), before, after, (double) before / after));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.oanda.v20.v20sample;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import com.oanda.v20.ExecuteException;
+import com.oanda.v20.RequestException;
+import com.oanda.v20.order.MarketOrderRequest;
+import com.oanda.v20.order.OrderCreateRequest;
+import com.oanda.v20.primitives.InstrumentName;
+
+/**
+ * Replays recorded price ticks through a {@link ReplayStrategy} against a
+ * {@link SimulatedAccount}, either as fast as possible or scaled to the
+ * original wall-clock spacing of the ticks.
+ * <p>
+ * Independent parameter sets are fanned out across all available cores; the
+ * loaded {@link TickSeries} is shared read-only between runs.
+ * <p>
+ * Usage: {@code TickReplay <tickfile> [speed]} where the tick file is either a
+ * {@link TickSeries} file or a {@link TickCaptureWriter capture file}, and a
+ * speed of 0 (the default) runs unthrottled and any other value replays at that multiple of real time.
+ */
+public class TickReplay {
+
+    private final TickSeries ticks;
+    private final double speed;
+
+    /**
+     * @param ticks the recorded ticks to replay
+     * @param speed 0 for unthrottled, otherwise a multiple of wall-clock time
+     */
+    public TickReplay(TickSeries ticks, double speed) {
+        this.ticks = ticks;
+        this.speed = speed;
+    }
+
+    /**
+     * The outcome of replaying a single strategy.
+     */
+    public static class Result {
+        public final String name;
+        public final int ticks;
+        public final long elapsedNanos;
+        public final double realizedPL;
+        public final double unrealizedPL;
+        public final int fills;
+
+        Result(String name, int ticks, long elapsedNanos, SimulatedAccount account) {
+            this.name = name;
+            this.ticks = ticks;
+            this.elapsedNanos = elapsedNanos;
+            this.realizedPL = account.getRealizedPL();
+            this.unrealizedPL = account.getUnrealizedPL();
+            this.fills = account.getFills();
+        }
+
+        public double ticksPerSecond() {
+            return elapsedNanos == 0 ? 0 : ticks * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-24s P/L %12.5f (realized %12.5f, unrealized %12.5f) fills %6d  %,.0f ticks/s",
+                    name, realizedPL + unrealizedPL, realizedPL, unrealizedPL, fills, ticksPerSecond());
+        }
+    }
+
+    /**
+     * Replay the series once through the given strategy.
+     */
+    public Result run(String name, ReplayStrategy strategy)
+            throws RequestException, ExecuteException, InterruptedException {
+        SimulatedAccount account = new SimulatedAccount(ticks);
+        int size = ticks.size();
+        long start = System.nanoTime();
+        long firstTick = size > 0 ? ticks.time(0) : 0;
+
+        for (int i = 0; i < size; i++) {
+            if (speed > 0) {
+                long due = start + (long) ((ticks.time(i) - firstTick) * 1000 / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0)
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+            account.onTick(i);
+            strategy.onTick(ticks.instrumentName(ticks.instrument(i)), ticks.time(i),
+                    ticks.bid(i), ticks.ask(i), account);
+        }
+        return new Result(name, size, System.nanoTime() - start, account);
+    }
+
+    /**
+     * Replay every strategy in {@code runs} concurrently, one run per core.
+     *
+     * @return the results in the iteration order of {@code runs}
+     */
+    public List<Result> runAll(Map<String, Supplier<ReplayStrategy>> runs) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Map.Entry<String, Supplier<ReplayStrategy>> entry : runs.entrySet()) {
+                String name = entry.getKey();
+                Supplier<ReplayStrategy> strategy = entry.getValue();
+                futures.add(executor.submit(() -> run(name, strategy.get())));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures)
+                results.add(future.get());
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A simple per-instrument exponential moving average crossover used to
+     * demonstrate a parameter sweep.
+     */
+    static class MovingAverageCrossover implements ReplayStrategy {
+        private final double fastAlpha;
+        private final double slowAlpha;
+        private final double units;
+        private final Map<String, double[]> averages = new HashMap<>();
+
+        MovingAverageCrossover(int fastPeriod, int slowPeriod, double units) {
+            this.fastAlpha = 2.0 / (fastPeriod + 1);
+            this.slowAlpha = 2.0 / (slowPeriod + 1);
+            this.units = units;
+        }
+
+        @Override
+        public void onTick(String instrument, long timeMicros, double bid, double ask, TradingAccount account)
+                throws RequestException, ExecuteException {
+            double mid = (bid + ask) / 2;
+            double[] average = averages.get(instrument);
+            if (average == null) {
+                averages.put(instrument, new double[] { mid, mid });
+                return;
+            }
+            average[0] += fastAlpha * (mid - average[0]);
+            average[1] += slowAlpha * (mid - average[1]);
+
+            double target = average[0] > average[1] ? units : -units;
+            double position = account.getUnits(instrument);
+            if (position != target) {
+                account.create(new OrderCreateRequest(account.getAccountId())
+                        .setOrder(new MarketOrderRequest()
+                            .setInstrument(new InstrumentName(instrument))
+                            .setUnits(target - position)));
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: TickReplay <tickfile> [speed]");
+            System.exit(1);
+        }
+        try {
+            Path file = Paths.get(args[0]);
+            TickSeries ticks;
+            if (TickCaptureReader.isCaptureFile(file)) {
+                try (TickCaptureReader reader = new TickCaptureReader(file)) {
+                    ticks = reader.toSeries();
+                }
+            } else {
+                ticks = TickSeries.load(file);
+            }
+            double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+            System.out.println("Loaded "+ticks.size()+" ticks for "+ticks.instrumentCount()+" instruments");
+
+            Map<String, Supplier<ReplayStrategy>> runs = new LinkedHashMap<>();
+            for (int fast : new int[] { 5, 10, 20 }) {
+                for (int slow : new int[] { 50, 100, 200 }) {
+                    runs.put("ema "+fast+"/"+slow, () -> new MovingAverageCrossover(fast, slow, 1000));
+                }
+            }
+
+            long start = System.nanoTime();
+            List<Result> results = new TickReplay(ticks, speed).runAll(runs);
+            long elapsed = System.nanoTime() - start;
+
+            for (Result result : results)
+                System.out.println(result);
+            System.out.println(String.format("Total %,.0f ticks/s across %d runs",
+                    (double) ticks.size() * results.size() * 1e9 / elapsed, results.size()));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
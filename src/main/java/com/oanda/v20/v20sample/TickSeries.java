@@ -0,0 +1,175 @@
+package com.oanda.v20.v20sample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.oanda.v20.pricing.ClientPrice;
+import com.oanda.v20.primitives.DateTime;
+
+/**
+ * An in-memory, column oriented series of recorded price ticks.
+ * <p>
+ * Ticks are held in parallel primitive arrays so that a replay can walk them
+ * without touching the heap, and a single loaded series can be shared
+ * read-only by any number of concurrent replays.
+ * <p>
+ * The on-disk format written by {@link Writer} is a flat sequence of records:
+ * <pre>
+ *   UTF    instrument
+ *   long   time (epoch microseconds)
+ *   double bid
+ *   double ask
+ * </pre>
+ */
+public class TickSeries {
+
+    private final String[] instruments;
+    private final int[] instrument;
+    private final long[] time;
+    private final double[] bid;
+    private final double[] ask;
+    private final int size;
+
+    TickSeries(String[] instruments, int[] instrument, long[] time, double[] bid, double[] ask, int size) {
+        this.instruments = instruments;
+        this.instrument = instrument;
+        this.time = time;
+        this.bid = bid;
+        this.ask = ask;
+        this.size = size;
+    }
+
+    public int size() { return size; }
+    public int instrumentCount() { return instruments.length; }
+    public String instrumentName(int index) { return instruments[index]; }
+    public int instrument(int i) { return instrument[i]; }
+    public long time(int i) { return time[i]; }
+    public double bid(int i) { return bid[i]; }
+    public double ask(int i) { return ask[i]; }
+
+    /**
+     * Load a tick file written by {@link Writer} fully into memory.
+     */
+    public static TickSeries load(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return load(in);
+        }
+    }
+
+    public static TickSeries load(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+        Builder builder = new Builder();
+        while (true) {
+            String name;
+            try {
+                name = in.readUTF();
+            } catch (EOFException e) {
+                break;
+            }
+            builder.add(name, in.readLong(), in.readDouble(), in.readDouble());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Convert a v20 {@link DateTime} in either RFC3339 or UNIX format to epoch
+     * microseconds.
+     */
+    public static long toEpochMicros(DateTime dateTime) {
+        String text = dateTime.toString();
+        if (text.indexOf('T') >= 0) {
+            Instant instant = Instant.parse(text);
+            return instant.getEpochSecond() * 1_000_000L + instant.getNano() / 1_000;
+        }
+        return new BigDecimal(text).movePointRight(6).longValue();
+    }
+
+    /**
+     * Accumulates ticks into growable primitive arrays.
+     */
+    public static class Builder {
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private int[] instrument = new int[1024];
+        private long[] time = new long[1024];
+        private double[] bid = new double[1024];
+        private double[] ask = new double[1024];
+        private int size;
+
+        public Builder add(String name, long timeMicros, double bidPrice, double askPrice) {
+            Integer idx = index.get(name);
+            if (idx == null) {
+                idx = names.size();
+                index.put(name, idx);
+                names.add(name);
+            }
+            if (size == time.length) {
+                int capacity = size * 2;
+                instrument = Arrays.copyOf(instrument, capacity);
+                time = Arrays.copyOf(time, capacity);
+                bid = Arrays.copyOf(bid, capacity);
+                ask = Arrays.copyOf(ask, capacity);
+            }
+            instrument[size] = idx;
+            time[size] = timeMicros;
+            bid[size] = bidPrice;
+            ask[size] = askPrice;
+            size++;
+            return this;
+        }
+
+        public TickSeries build() {
+            return new TickSeries(names.toArray(new String[0]), instrument, time, bid, ask, size);
+        }
+    }
+
+    /**
+     * Appends ticks to a tick file, e.g. from the {@link ClientPrice} objects
+     * returned by {@link PricePolling}.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        public Writer(Path file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16));
+        }
+
+        public void write(String name, long timeMicros, double bidPrice, double askPrice) throws IOException {
+            out.writeUTF(name);
+            out.writeLong(timeMicros);
+            out.writeDouble(bidPrice);
+            out.writeDouble(askPrice);
+        }
+
+        public void write(ClientPrice price) throws IOException {
+            if (price.getBids().isEmpty() || price.getAsks().isEmpty())
+                return;
+            write(price.getInstrument().toString(),
+                    toEpochMicros(price.getTime()),
+                    price.getBids().get(0).getPrice().doubleValue(),
+                    price.getAsks().get(0).getPrice().doubleValue());
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.oanda.v20.v20sample;
+
+import com.oanda.v20.ExecuteException;
+import com.oanda.v20.RequestException;
+import com.oanda.v20.account.AccountID;
+import com.oanda.v20.order.OrderCreateRequest;
+
+/**
+ * The account a {@link ReplayStrategy} trades through.  Orders are placed with
+ * the same {@link OrderCreateRequest} that {@code ctx.order.create()} takes, so
+ * a strategy runs unchanged against a {@link SimulatedAccount} during replay
+ * and a {@link LiveAccount} against a real v20 account.
+ */
+public interface TradingAccount {
+
+    /**
+     * The part of an {@code OrderFillTransaction} a strategy needs.
+     */
+    class Fill {
+        private final String instrument;
+        private final double units;
+        private final double price;
+        private final double pl;
+
+        public Fill(String instrument, double units, double price, double pl) {
+            this.instrument = instrument;
+            this.units = units;
+            this.price = price;
+            this.pl = pl;
+        }
+
+        public String getInstrument() { return instrument; }
+        public double getUnits() { return units; }
+        public double getPrice() { return price; }
+
+        /**
+         * @return the profit/loss realized by the fill
+         */
+        public double getPl() { return pl; }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.0f @ %.5f, P/L %.5f", instrument, units, price, pl);
+        }
+    }
+
+    AccountID getAccountId();
+
+    /**
+     * Place an order.
+     *
+     * @return the fill, or null if the order was not filled
+     */
+    Fill create(OrderCreateRequest request) throws RequestException, ExecuteException;
+
+    /**
+     * @return the net units held in {@code instrument}, positive for long
+     */
+    double getUnits(String instrument);
+}
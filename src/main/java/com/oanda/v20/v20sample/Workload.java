@@ -0,0 +1,159 @@
+package com.oanda.v20.v20sample;
+
+/**
+ * A unit of work hosted by {@link SampleService} on its own thread, with a
+ * start/stop lifecycle and a health state.
+ * <p>
+ * {@link #setUp()} runs once, then {@link #runOnce()} runs every
+ * {@code intervalMillis} until the workload is stopped.  A workload with an
+ * interval of 0 runs once and completes.  The time from {@link #start()} to
+ * the first successful {@link #runOnce()} is reported as the warm-up time.
+ * <p>
+ * A stopped workload can be started again once its thread has exited.
+ */
+public abstract class Workload {
+
+    public enum Health { STOPPED, STARTING, HEALTHY, DEGRADED, FAILED, COMPLETED }
+
+    private final String name;
+    private final long intervalMillis;
+    private volatile Health health = Health.STOPPED;
+    private volatile Thread running;   // the thread that should be running, null once stopped
+    private volatile long startNanos;
+    private volatile long warmupNanos = -1;
+    private volatile long lastSuccessMillis;
+    private volatile long runs;
+    private volatile int consecutiveFailures;
+    private volatile Exception lastError;
+    private Thread thread;
+
+    protected Workload(String name, long intervalMillis) {
+        this.name = name;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Called once on the workload's thread before the first {@link #runOnce()}.
+     */
+    protected void setUp() throws Exception {}
+
+    protected abstract void runOnce() throws Exception;
+
+    /**
+     * Called once on the workload's thread after it has stopped.
+     */
+    protected void tearDown() throws Exception {}
+
+    public String getName() { return name; }
+    public long getRuns() { return runs; }
+    public Exception getLastError() { return lastError; }
+
+    /**
+     * @return the time from start to the first successful run, or -1 if there
+     *         has been none yet
+     */
+    public double getWarmupMillis() {
+        return warmupNanos < 0 ? -1 : warmupNanos / 1e6;
+    }
+
+    /**
+     * A looping workload is reported {@link Health#DEGRADED} if its last run
+     * failed or if it has not succeeded for three intervals.
+     */
+    public Health getHealth() {
+        Health current = health;
+        if (current == Health.HEALTHY && intervalMillis > 0
+                && System.currentTimeMillis() - lastSuccessMillis > 3 * intervalMillis)
+            return Health.DEGRADED;
+        return current;
+    }
+
+    /**
+     * @throws IllegalStateException if the workload was stopped but its thread
+     *         has not exited yet, e.g. because it is blocked in a request
+     */
+    public synchronized void start() {
+        if (running != null)
+            return;
+        if (thread != null && thread.isAlive())
+            throw new IllegalStateException(name+" is still stopping");
+        health = Health.STARTING;
+        warmupNanos = -1;
+        startNanos = System.nanoTime();
+        thread = new Thread(this::run, name);
+        running = thread;
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            running = null;
+            t = thread;
+        }
+        if (t != null) {
+            t.interrupt();
+            t.join(5000);
+        }
+    }
+
+    private void run() {
+        try {
+            setUp();
+            while (running == Thread.currentThread()) {
+                try {
+                    runOnce();
+                    if (running != Thread.currentThread())
+                        break;
+                    runs++;
+                    if (warmupNanos < 0)
+                        warmupNanos = System.nanoTime() - startNanos;
+                    lastSuccessMillis = System.currentTimeMillis();
+                    consecutiveFailures = 0;
+                    health = Health.HEALTHY;
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    if (running != Thread.currentThread())
+                        break;  // stopped while running
+                    lastError = e;
+                    consecutiveFailures++;
+                    health = intervalMillis == 0 ? Health.FAILED : Health.DEGRADED;
+                    System.err.println(name+" failed ("+consecutiveFailures+" in a row): "+e);
+                }
+                if (intervalMillis == 0) {
+                    if (health == Health.HEALTHY)
+                        health = Health.COMPLETED;
+                    return;
+                }
+                Thread.sleep(intervalMillis);
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } catch (Exception e) {
+            lastError = e;
+            health = Health.FAILED;
+            System.err.println(name+" failed to start: "+e);
+            return;
+        } finally {
+            synchronized (this) {
+                if (running == Thread.currentThread())
+                    running = null;
+            }
+            try {
+                tearDown();
+            } catch (Exception e) {
+                System.err.println(name+" failed to stop cleanly: "+e);
+            }
+        }
+        health = Health.STOPPED;
+    }
+
+    @Override
+    public String toString() {
+        Exception error = lastError;
+        return String.format("%-20s %-9s runs %d, warm-up %.1f ms%s",
+                name, getHealth(), runs, getWarmupMillis(),
+                consecutiveFailures > 0 && error != null ? ", last error: "+error : "");
+    }
+}